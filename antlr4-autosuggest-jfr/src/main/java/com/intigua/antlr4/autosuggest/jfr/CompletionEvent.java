@@ -0,0 +1,31 @@
+package com.intigua.antlr4.autosuggest.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One call of {@code AutoSuggester.suggestCompletions}.
+ */
+@Name("com.intigua.antlr4.autosuggest.Completion")
+@Label("Completion")
+@Category("ANTLR4 Autosuggest")
+@Description("A suggestion request, from lexing the input to validating the suggestions")
+@Enabled(false)
+class CompletionEvent extends Event {
+    @Label("Grammar")
+    String grammarId;
+
+    @Label("Input Length")
+    int inputLength;
+
+    @Label("Suggestion Count")
+    int suggestionCount;
+
+    @Label("Incomplete")
+    @Description("The work limit cut the search short, so suggestions may be missing")
+    boolean incomplete;
+}
@@ -0,0 +1,62 @@
+package com.intigua.antlr4.autosuggest.jfr;
+
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+import com.intigua.antlr4.autosuggest.SuggestionTracer;
+
+/**
+ * Emits suggestion requests and their phases as Java Flight Recorder events, so slow completions can be matched with
+ * GC and CPU activity in the same recording. The events are disabled by default; enable them in the recording
+ * settings, e.g. {@code jfr configure com.intigua.antlr4.autosuggest.Completion#enabled=true}, or with a custom
+ * .jfc file. While they are disabled a request costs a few checks and no allocation once compiled.
+ *
+ * Install one tracer per grammar: {@code engine.setTracer(new JfrSuggestionTracer("sql"))}.
+ */
+public class JfrSuggestionTracer implements SuggestionTracer {
+    private static final Request NO_REQUEST = (suggestionCount, incomplete) -> {
+    };
+    private static final Span NO_SPAN = () -> {
+    };
+
+    private final String grammarId;
+
+    public JfrSuggestionTracer(String grammarId) {
+        this.grammarId = grammarId;
+    }
+
+    /**
+     * Installs a tracer on the given engine and returns it.
+     */
+    public static JfrSuggestionTracer install(GrammarEngine engine, String grammarId) {
+        JfrSuggestionTracer tracer = new JfrSuggestionTracer(grammarId);
+        engine.setTracer(tracer);
+        return tracer;
+    }
+
+    @Override
+    public Request requestStarted(int inputLength) {
+        CompletionEvent event = new CompletionEvent();
+        if (!event.isEnabled()) {
+            return NO_REQUEST;
+        }
+        event.grammarId = grammarId;
+        event.inputLength = inputLength;
+        event.begin();
+        return (suggestionCount, incomplete) -> {
+            event.suggestionCount = suggestionCount;
+            event.incomplete = incomplete;
+            event.commit();
+        };
+    }
+
+    @Override
+    public Span phaseStarted(Phase phase) {
+        SuggestionPhaseEvent event = new SuggestionPhaseEvent();
+        if (!event.isEnabled()) {
+            return NO_SPAN;
+        }
+        event.grammarId = grammarId;
+        event.phase = phase.name();
+        event.begin();
+        return event::commit;
+    }
+}
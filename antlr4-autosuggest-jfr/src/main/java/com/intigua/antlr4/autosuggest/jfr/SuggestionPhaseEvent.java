@@ -0,0 +1,24 @@
+package com.intigua.antlr4.autosuggest.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A phase of a suggestion request, nested in its {@link CompletionEvent}.
+ */
+@Name("com.intigua.antlr4.autosuggest.SuggestionPhase")
+@Label("Suggestion Phase")
+@Category("ANTLR4 Autosuggest")
+@Description("Tokenization, parser walk, lexer enumeration or validation within a suggestion request")
+@Enabled(false)
+class SuggestionPhaseEvent extends Event {
+    @Label("Grammar")
+    String grammarId;
+
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,66 @@
+package com.intigua.antlr4.autosuggest.jfr;
+
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.SuggestionTracer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrSuggestionTracerTest {
+
+    @Test
+    public void trace_whenEnabled_shouldRecordRequestAndPhases() throws Exception {
+        JfrSuggestionTracer tracer = new JfrSuggestionTracer("sql");
+        Path file = Files.createTempFile("suggestions", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(CompletionEvent.class);
+            recording.enable(SuggestionPhaseEvent.class);
+            recording.start();
+            SuggestionTracer.Request request = tracer.requestStarted(12);
+            tracer.phaseStarted(SuggestionTracer.Phase.TOKENIZATION).finish();
+            tracer.phaseStarted(SuggestionTracer.Phase.PARSER_WALK).finish();
+            request.finish(3, true);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        RecordedEvent completion = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.intigua.antlr4.autosuggest.Completion"))
+                .findFirst().get();
+        assertThat(completion.getString("grammarId"), is("sql"));
+        assertThat(completion.getInt("inputLength"), is(12));
+        assertThat(completion.getInt("suggestionCount"), is(3));
+        assertThat(completion.getBoolean("incomplete"), is(true));
+        List<String> phases = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.intigua.antlr4.autosuggest.SuggestionPhase"))
+                .map(e -> e.getString("phase")).collect(Collectors.toList());
+        assertThat(phases, hasItems("TOKENIZATION", "PARSER_WALK"));
+    }
+
+    @Test
+    public void trace_whenDisabled_shouldNotRecord() throws Exception {
+        JfrSuggestionTracer tracer = new JfrSuggestionTracer("sql");
+        Path file = Files.createTempFile("suggestions", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            tracer.requestStarted(12).finish(3, false);
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertThat(events.stream().anyMatch(e -> e.getEventType().getName().startsWith("com.intigua")), is(false));
+    }
+}
@@ -0,0 +1,346 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+import com.intigua.antlr4.autosuggest.ReflectionLexerAndParserFactory;
+
+/**
+ * Serves completions of one grammar over the Language Server Protocol, so any editor with an LSP client can use it.
+ * Handles textDocument/completion for documents synced incrementally with didOpen, didChange and didClose.
+ *
+ * Completion requests wait for a short debounce delay before running, and a pending request is answered with an
+ * error instead when it is superseded: by a newer request for the same document, by a change to the document, or by
+ * $/cancelRequest. Document changes and completions run in order on a single worker thread, so the reader never
+ * waits for a completion. Each change relexes only the text around it. Can be run from the command line:
+ * {@code AutoSuggestLanguageServer <lexer class> <parser class>}, talking over stdin and stdout.
+ */
+public class AutoSuggestLanguageServer {
+    private static final Logger logger = LoggerFactory.getLogger(AutoSuggestLanguageServer.class);
+    static final int METHOD_NOT_FOUND = -32601;
+    static final int INTERNAL_ERROR = -32603;
+    static final int REQUEST_CANCELLED = -32800;
+    static final int CONTENT_MODIFIED = -32801;
+    private static final int SYNC_INCREMENTAL = 2;
+    private static final int DEFAULT_DEBOUNCE_MILLIS = 30;
+
+    private final GrammarEngine grammarEngine;
+    private final MessageTransport transport;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, TextDocument> documents = new HashMap<>(); // Used by the worker only
+    private final Map<Object, PendingCompletion> pendingCompletions = new ConcurrentHashMap<>();
+    private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+
+    private static class PendingCompletion {
+        final Object requestId;
+        final String uri;
+        volatile Future<?> future;
+
+        PendingCompletion(Object requestId, String uri) {
+            this.requestId = requestId;
+            this.uri = uri;
+        }
+    }
+
+    public AutoSuggestLanguageServer(GrammarEngine grammarEngine, InputStream in, OutputStream out) {
+        this.grammarEngine = grammarEngine;
+        this.transport = new MessageTransport(in, out);
+    }
+
+    /**
+     * How long a completion request waits for newer requests or changes that supersede it.
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Handles messages until the client sends exit or closes the input. Completions still pending then are answered
+     * before returning.
+     */
+    public void run() throws IOException, InterruptedException {
+        try {
+            Map<String, Object> message;
+            while ((message = transport.read()) != null) {
+                if ("exit".equals(message.get("method"))) {
+                    break;
+                }
+                handle(message);
+            }
+        } finally {
+            worker.shutdown();
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void handle(Map<String, Object> message) throws IOException {
+        String method = (String) message.get("method");
+        Object id = message.get("id");
+        Map<String, Object> params = asObject(message.get("params"));
+        if (method == null) {
+            return; // A response to a request of ours, which we never send
+        }
+        logger.debug("Received " + method);
+        switch (method) {
+        case "initialize":
+            respond(id, initializeResult());
+            break;
+        case "shutdown":
+            respond(id, null);
+            break;
+        case "textDocument/didOpen":
+            didOpen(params);
+            break;
+        case "textDocument/didChange":
+            didChange(params);
+            break;
+        case "textDocument/didClose":
+            didClose(params);
+            break;
+        case "textDocument/completion":
+            completion(id, params);
+            break;
+        case "$/cancelRequest":
+            cancel(params.get("id"), REQUEST_CANCELLED, "Cancelled");
+            break;
+        default:
+            if (id != null) {
+                respondError(id, METHOD_NOT_FOUND, "Unsupported method " + method);
+            } // Notifications we do not handle, such as initialized, are ignored
+        }
+    }
+
+    private static Map<String, Object> initializeResult() {
+        Map<String, Object> textDocumentSync = new LinkedHashMap<>();
+        textDocumentSync.put("openClose", true);
+        textDocumentSync.put("change", SYNC_INCREMENTAL);
+        Map<String, Object> capabilities = new LinkedHashMap<>();
+        capabilities.put("textDocumentSync", textDocumentSync);
+        capabilities.put("completionProvider", new LinkedHashMap<>());
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capabilities", capabilities);
+        return result;
+    }
+
+    private void didOpen(Map<String, Object> params) {
+        Map<String, Object> document = asObject(params.get("textDocument"));
+        String uri = (String) document.get("uri");
+        String text = (String) document.get("text");
+        long version = asLong(document.get("version"));
+        worker.execute(() -> documents.put(uri, new TextDocument(text, version, grammarEngine)));
+    }
+
+    private void didChange(Map<String, Object> params) {
+        Map<String, Object> document = asObject(params.get("textDocument"));
+        String uri = (String) document.get("uri");
+        long version = asLong(document.get("version"));
+        List<Object> changes = asArray(params.get("contentChanges"));
+        cancelCompletionsOf(uri, CONTENT_MODIFIED, "Document changed");
+        worker.execute(() -> {
+            TextDocument textDocument = documents.get(uri);
+            if (textDocument == null) {
+                logger.warn("Change to a document that is not open: " + uri);
+                return;
+            }
+            for (Object change : changes) {
+                applyChange(textDocument, asObject(change), version);
+            }
+        });
+    }
+
+    private static void applyChange(TextDocument textDocument, Map<String, Object> change, long version) {
+        String newText = (String) change.get("text");
+        Map<String, Object> range = asObject(change.get("range"));
+        if (range == null) {
+            textDocument.applyChange(-1, -1, -1, -1, newText, version);
+            return;
+        }
+        Map<String, Object> start = asObject(range.get("start"));
+        Map<String, Object> end = asObject(range.get("end"));
+        textDocument.applyChange(asInt(start.get("line")), asInt(start.get("character")), asInt(end.get("line")),
+                asInt(end.get("character")), newText, version);
+    }
+
+    private void didClose(Map<String, Object> params) {
+        String uri = (String) asObject(params.get("textDocument")).get("uri");
+        cancelCompletionsOf(uri, REQUEST_CANCELLED, "Document closed");
+        worker.execute(() -> documents.remove(uri));
+    }
+
+    private void completion(Object id, Map<String, Object> params) {
+        String uri = (String) asObject(params.get("textDocument")).get("uri");
+        Map<String, Object> position = asObject(params.get("position"));
+        int line = asInt(position.get("line"));
+        int character = asInt(position.get("character"));
+        cancelCompletionsOf(uri, REQUEST_CANCELLED, "Superseded by a newer completion request");
+        PendingCompletion pending = new PendingCompletion(id, uri);
+        pendingCompletions.put(id, pending); // Before scheduling, so the task always finds it unless cancelled
+        pending.future = worker.schedule(() -> runCompletion(pending, line, character), debounceMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void runCompletion(PendingCompletion pending, int line, int character) {
+        if (pendingCompletions.remove(pending.requestId) == null) {
+            return; // Cancelled, and already answered
+        }
+        try {
+            TextDocument document = documents.get(pending.uri);
+            if (document == null) {
+                respondError(pending.requestId, INTERNAL_ERROR, "Document is not open: " + pending.uri);
+                return;
+            }
+            respond(pending.requestId, suggest(document, line, character));
+        } catch (IOException e) {
+            logger.error("Failed to send completions", e);
+        } catch (RuntimeException e) {
+            logger.error("Failed to compute completions", e);
+            sendErrorQuietly(pending.requestId, INTERNAL_ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Each suggestion completes the word before the caret, so the items replace that word with the completed one,
+     * letting the editor filter them by what was typed. The document's tokens before the caret are reused rather than
+     * lexing its whole prefix again.
+     */
+    private Map<String, Object> suggest(TextDocument document, int line, int character) {
+        String text = document.getText();
+        int caret = document.offsetOf(line, character);
+        int wordStart = caret;
+        while (wordStart > 0 && isWordPart(text.charAt(wordStart - 1))) {
+            --wordStart;
+        }
+        String typedWord = text.substring(wordStart, caret);
+        Collection<String> suggestions = document.getTokens().suggesterAt(text, caret).suggestCompletions();
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", position(document.positionOf(wordStart)));
+        range.put("end", position(document.positionOf(caret)));
+        List<Object> items = new ArrayList<>();
+        for (String suggestion : new TreeSet<>(suggestions)) {
+            String completedWord = typedWord + suggestion;
+            Map<String, Object> textEdit = new LinkedHashMap<>();
+            textEdit.put("range", range);
+            textEdit.put("newText", completedWord);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("label", completedWord);
+            item.put("textEdit", textEdit);
+            items.add(item);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("isIncomplete", false);
+        result.put("items", items);
+        return result;
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static Map<String, Object> position(int[] lineAndCharacter) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("line", lineAndCharacter[0]);
+        result.put("character", lineAndCharacter[1]);
+        return result;
+    }
+
+    private void cancelCompletionsOf(String uri, int errorCode, String reason) {
+        for (PendingCompletion pending : pendingCompletions.values()) {
+            if (pending.uri.equals(uri)) {
+                cancel(pending.requestId, errorCode, reason);
+            }
+        }
+    }
+
+    /**
+     * Answers a pending completion request with an error, unless it already started running. A completion that is
+     * running is not interrupted.
+     */
+    private void cancel(Object requestId, int errorCode, String reason) {
+        PendingCompletion pending = pendingCompletions.remove(requestId);
+        if (pending == null) {
+            return;
+        }
+        Future<?> future = pending.future;
+        if (future != null) {
+            future.cancel(false);
+        }
+        sendErrorQuietly(requestId, errorCode, reason);
+    }
+
+    private void respond(Object id, Object result) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("result", result);
+        transport.write(response);
+    }
+
+    private void respondError(Object id, int code, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", error);
+        transport.write(response);
+    }
+
+    private void sendErrorQuietly(Object id, int code, String message) {
+        try {
+            respondError(id, code, message);
+        } catch (IOException e) {
+            logger.error("Failed to send error response", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asObject(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asArray(Object value) {
+        return (List<Object>) value;
+    }
+
+    private static long asLong(Object value) {
+        return (value == null) ? 0 : ((Number) value).longValue();
+    }
+
+    private static int asInt(Object value) {
+        return (int) asLong(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: AutoSuggestLanguageServer <lexer class> <parser class>");
+            System.exit(2);
+        }
+        Class<? extends Lexer> lexerClass = (Class<? extends Lexer>) Class.forName(args[0]);
+        Class<? extends Parser> parserClass = (Class<? extends Parser>) Class.forName(args[1]);
+        GrammarEngine engine = new GrammarEngine(new ReflectionLexerAndParserFactory(lexerClass, parserClass));
+        engine.warmUp(1);
+        new AutoSuggestLanguageServer(engine, System.in, System.out).run();
+    }
+}
@@ -0,0 +1,182 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+import com.intigua.antlr4.autosuggest.AutoSuggester;
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+
+/**
+ * The tokens of an open document, kept up to date by relexing only around each change, so that a completion lexes
+ * just the text between the last whole token and the caret. Tokens keep only their type, channel, text and offsets.
+ *
+ * Relexing starts one token before the change, assuming the lexer never looks further ahead than the next token, and
+ * stops at the first token that starts where an old token after the change started: the lexer then sees the same text
+ * in the same mode, so the following old tokens are kept with shifted offsets. The mode at a token boundary is only
+ * known for lexers with a single mode, so other lexers are not kept and each completion lexes its whole prefix.
+ */
+class DocumentTokens {
+    private final GrammarEngine grammarEngine;
+    private final boolean incremental;
+    private List<Token> tokens = new ArrayList<>(); // On all channels, in document order
+    private List<Integer> errorOffsets = new ArrayList<>(); // Where the lexer could not match a token, in order
+    private int textLength;
+    private int lastRelexedTokenCount;
+
+    DocumentTokens(GrammarEngine grammarEngine, String text) {
+        this.grammarEngine = grammarEngine;
+        this.incremental = grammarEngine.createLexer("").getModeNames().length == 1;
+        replace(0, 0, text);
+    }
+
+    /**
+     * Updates the tokens after the text between start and oldEnd was replaced, making newText.
+     */
+    void replace(int start, int oldEnd, String newText) {
+        if (!incremental) {
+            return;
+        }
+        int delta = newText.length() - textLength;
+        int insertedEnd = oldEnd + delta;
+        textLength = newText.length();
+        int keptTokenCount = Math.max(0, countTokensEndingBefore(start - 1) - 1);
+        int restartOffset = (keptTokenCount == 0) ? 0 : tokens.get(keptTokenCount - 1).getStopIndex() + 1;
+        List<Token> newTokens = new ArrayList<>(tokens.subList(0, keptTokenCount));
+        ErrorListener errors = new ErrorListener(restartOffset);
+        for (int offset : errorOffsets) {
+            if (offset < restartOffset) {
+                errors.offsets.add(offset);
+            }
+        }
+        Lexer lexer = createLexer(newText.substring(restartOffset), errors);
+        int oldIndex = keptTokenCount;
+        lastRelexedTokenCount = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            ++lastRelexedTokenCount;
+            int tokenStart = restartOffset + token.getStartIndex();
+            while (oldIndex < tokens.size() && tokens.get(oldIndex).getStartIndex() + delta < tokenStart) {
+                ++oldIndex;
+            }
+            if (tokenStart >= insertedEnd && oldIndex < tokens.size() && isSameToken(tokens.get(oldIndex), token,
+                    restartOffset - delta)) {
+                int resyncOffset = tokens.get(oldIndex).getStartIndex();
+                for (int i = oldIndex; i < tokens.size(); ++i) {
+                    newTokens.add(detached(tokens.get(i), delta));
+                }
+                for (int offset : errorOffsets) {
+                    if (offset >= resyncOffset) {
+                        errors.offsets.add(offset + delta);
+                    }
+                }
+                break;
+            }
+            newTokens.add(detached(token, restartOffset));
+        }
+        this.tokens = newTokens;
+        this.errorOffsets = errors.offsets;
+    }
+
+    /**
+     * A suggester for the text before the caret. The tokens ending before the caret and before the first lexer error
+     * are reused, and only the rest of the text is lexed.
+     */
+    AutoSuggester suggesterAt(String text, int caret) {
+        String input = text.substring(0, caret);
+        int reusableEnd = incremental ? caret : 0;
+        if (!errorOffsets.isEmpty()) {
+            reusableEnd = Math.min(reusableEnd, errorOffsets.get(0));
+        }
+        int reusedTokenCount = countTokensEndingBefore(reusableEnd);
+        int tailStart = (reusedTokenCount == 0) ? 0 : tokens.get(reusedTokenCount - 1).getStopIndex() + 1;
+        List<Token> inputTokens = new ArrayList<>(tokens.subList(0, reusedTokenCount));
+        ErrorListener errors = new ErrorListener(tailStart);
+        Lexer lexer = createLexer(input.substring(tailStart), errors);
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            inputTokens.add(detached(token, tailStart));
+        }
+        // Like the suggester's own lexing, the untokenized text starts at the first error
+        String untokenizedText = errors.offsets.isEmpty() ? "" : input.substring(errors.offsets.get(0));
+        AutoSuggester suggester = new AutoSuggester(grammarEngine, input, inputTokens, untokenizedText);
+        suggester.setLexerModeAtEndOfInput(errors.offsets.isEmpty() ? lexer._mode : errors.lexerModeAtFirstError);
+        return suggester;
+    }
+
+    List<Token> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * How many tokens the last change lexed, for tests.
+     */
+    int getLastRelexedTokenCount() {
+        return lastRelexedTokenCount;
+    }
+
+    private int countTokensEndingBefore(int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.get(middle).getStopIndex() < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Lexer createLexer(String text, ErrorListener errors) {
+        Lexer lexer = grammarEngine.createLexer(text);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        return lexer;
+    }
+
+    /**
+     * Collects the document offsets of lexer errors, for a lexer of the text from a given offset.
+     */
+    private static class ErrorListener extends BaseErrorListener {
+        final List<Integer> offsets = new ArrayList<>();
+        final int textOffset;
+        int lexerModeAtFirstError = Lexer.DEFAULT_MODE;
+
+        ErrorListener(int textOffset) {
+            this.textOffset = textOffset;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                String msg, RecognitionException e) {
+            Lexer lexer = (Lexer) recognizer;
+            if (offsets.isEmpty()) {
+                lexerModeAtFirstError = lexer._mode;
+            }
+            offsets.add(textOffset + lexer._tokenStartCharIndex);
+        }
+    }
+
+    private static boolean isSameToken(Token oldToken, Token newToken, int newTokenOffset) {
+        return oldToken.getType() == newToken.getType() && oldToken.getChannel() == newToken.getChannel()
+                && oldToken.getStartIndex() == newToken.getStartIndex() + newTokenOffset
+                && oldToken.getStopIndex() == newToken.getStopIndex() + newTokenOffset;
+    }
+
+    /**
+     * A copy of the token moved by delta, holding its own text rather than referring to the lexed text.
+     */
+    private static Token detached(Token token, int delta) {
+        CommonToken result = new CommonToken(token.getType(), token.getText());
+        result.setChannel(token.getChannel());
+        result.setStartIndex(token.getStartIndex() + delta);
+        result.setStopIndex(token.getStopIndex() + delta);
+        return result;
+    }
+}
@@ -0,0 +1,239 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the protocol messages. Objects are read as {@link Map}s, arrays as {@link List}s, numbers as
+ * {@link Long} or {@link Double}, and the rest as {@link String}, {@link Boolean} or null; the same types are
+ * written.
+ */
+final class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json parser = new Json(text);
+        Object result = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("Unexpected trailing text");
+        }
+        return result;
+    }
+
+    static String write(Object value) {
+        StringBuilder result = new StringBuilder();
+        write(value, result);
+        return result.toString();
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (pos >= text.length()) {
+            throw error("Unexpected end of text");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+        case '{':
+            return readObject();
+        case '[':
+            return readArray();
+        case '"':
+            return readString();
+        case 't':
+            return readLiteral("true", Boolean.TRUE);
+        case 'f':
+            return readLiteral("false", Boolean.FALSE);
+        case 'n':
+            return readLiteral("null", null);
+        default:
+            return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        ++pos;
+        skipWhitespace();
+        if (peek() == '}') {
+            ++pos;
+            return result;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            result.put(name, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                ++pos;
+            } else {
+                expect('}');
+                return result;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> result = new ArrayList<>();
+        ++pos;
+        skipWhitespace();
+        if (peek() == ']') {
+            ++pos;
+            return result;
+        }
+        while (true) {
+            result.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                ++pos;
+            } else {
+                expect(']');
+                return result;
+            }
+        }
+    }
+
+    private String readString() {
+        StringBuilder result = new StringBuilder();
+        ++pos;
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return result.toString();
+            }
+            if (c != '\\') {
+                result.append(c);
+                continue;
+            }
+            char escaped = text.charAt(pos++);
+            switch (escaped) {
+            case 'b':
+                result.append('\b');
+                break;
+            case 'f':
+                result.append('\f');
+                break;
+            case 'n':
+                result.append('\n');
+                break;
+            case 'r':
+                result.append('\r');
+                break;
+            case 't':
+                result.append('\t');
+                break;
+            case 'u':
+                result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                pos += 4;
+                break;
+            default:
+                result.append(escaped);
+            }
+        }
+    }
+
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, pos)) {
+            throw error("Unexpected character");
+        }
+        pos += literal.length();
+        return value;
+    }
+
+    private Number readNumber() {
+        int start = pos;
+        boolean integral = true;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            integral &= ".eE".indexOf(text.charAt(pos)) < 0;
+            ++pos;
+        }
+        if (start == pos) {
+            throw error("Unexpected character");
+        }
+        String number = text.substring(start, pos);
+        return integral ? (Number) Long.valueOf(number) : (Number) Double.valueOf(number);
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("Unexpected end of text");
+        }
+        return text.charAt(pos);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        ++pos;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            ++pos;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+
+    private static void write(Object value, StringBuilder result) {
+        if (value == null || value instanceof Boolean || value instanceof Number) {
+            result.append(value);
+        } else if (value instanceof String) {
+            writeString((String) value, result);
+        } else if (value instanceof Map) {
+            result.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> member : ((Map<?, ?>) value).entrySet()) {
+                result.append(first ? "" : ",");
+                writeString(String.valueOf(member.getKey()), result);
+                result.append(':');
+                write(member.getValue(), result);
+                first = false;
+            }
+            result.append('}');
+        } else if (value instanceof List) {
+            result.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                result.append(first ? "" : ",");
+                write(element, result);
+                first = false;
+            }
+            result.append(']');
+        } else {
+            throw new IllegalArgumentException("Not a JSON value: " + value.getClass());
+        }
+    }
+
+    private static void writeString(String s, StringBuilder result) {
+        result.append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        result.append('"');
+    }
+}
@@ -0,0 +1,81 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Reads and writes JSON-RPC messages framed with a Content-Length header, as the Language Server Protocol sends them
+ * over stdio. Messages can be written from several threads.
+ */
+class MessageTransport {
+    private static final String CONTENT_LENGTH = "Content-Length:";
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    MessageTransport(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Returns the next message, or null at the end of the input.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> read() throws IOException {
+        int contentLength = -1;
+        while (true) {
+            String header = readHeaderLine();
+            if (header == null) {
+                return null;
+            }
+            if (header.isEmpty()) {
+                break;
+            }
+            if (header.regionMatches(true, 0, CONTENT_LENGTH, 0, CONTENT_LENGTH.length())) {
+                contentLength = Integer.parseInt(header.substring(CONTENT_LENGTH.length()).trim());
+            }
+        }
+        if (contentLength < 0) {
+            throw new IOException("Message without " + CONTENT_LENGTH + " header");
+        }
+        byte[] content = new byte[contentLength];
+        for (int read = 0; read < contentLength;) {
+            int count = in.read(content, read, contentLength - read);
+            if (count < 0) {
+                throw new EOFException("Message ended after " + read + " of " + contentLength + " bytes");
+            }
+            read += count;
+        }
+        return (Map<String, Object>) Json.parse(new String(content, StandardCharsets.UTF_8));
+    }
+
+    synchronized void write(Map<String, Object> message) throws IOException {
+        byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+        out.write((CONTENT_LENGTH + " " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        out.flush();
+    }
+
+    /**
+     * Returns the header line without its line break, or null at the end of the input before any character.
+     */
+    private String readHeaderLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c < 0 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,94 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+
+/**
+ * The text of an open document and optionally its tokens, kept up to date with incremental changes. Positions are
+ * zero-based lines and UTF-16 code unit offsets within a line, as in the protocol.
+ */
+class TextDocument {
+    private String text;
+    private long version;
+    private final DocumentTokens tokens; // null when the document is not lexed
+
+    TextDocument(String text, long version) {
+        this.text = text;
+        this.version = version;
+        this.tokens = null;
+    }
+
+    TextDocument(String text, long version, GrammarEngine grammarEngine) {
+        this.text = text;
+        this.version = version;
+        this.tokens = new DocumentTokens(grammarEngine, text);
+    }
+
+    String getText() {
+        return text;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    DocumentTokens getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Replaces the text between two positions, or the whole text when the start is negative.
+     */
+    void applyChange(int startLine, int startCharacter, int endLine, int endCharacter, String newText, long version) {
+        int start = 0;
+        int end = text.length();
+        if (startLine >= 0) {
+            start = offsetOf(startLine, startCharacter);
+            end = Math.max(start, offsetOf(endLine, endCharacter));
+        }
+        this.text = text.substring(0, start) + newText + text.substring(end);
+        this.version = version;
+        if (tokens != null) {
+            tokens.replace(start, end, text);
+        }
+    }
+
+    /**
+     * The offset of a position in the text. Lines end with \n, \r\n or \r; positions past the end of a line or of
+     * the text are moved back to it.
+     */
+    int offsetOf(int line, int character) {
+        int lineStart = 0;
+        for (int i = 0; i < line; ++i) {
+            int lineEnd = findLineEnd(lineStart);
+            if (lineEnd == text.length()) {
+                return text.length();
+            }
+            lineStart = lineEnd + ((text.startsWith("\r\n", lineEnd)) ? 2 : 1);
+        }
+        return Math.min(lineStart + Math.max(0, character), findLineEnd(lineStart));
+    }
+
+    /**
+     * The line and character of an offset, as {line, character}.
+     */
+    int[] positionOf(int offset) {
+        int line = 0;
+        int lineStart = 0;
+        for (int i = 0; i < offset; ++i) {
+            char c = text.charAt(i);
+            if (c == '\n' || (c == '\r' && !text.startsWith("\n", i + 1))) {
+                ++line;
+                lineStart = i + 1;
+            }
+        }
+        return new int[] { line, offset - lineStart };
+    }
+
+    private int findLineEnd(int lineStart) {
+        int i = lineStart;
+        while (i < text.length() && text.charAt(i) != '\n' && text.charAt(i) != '\r') {
+            ++i;
+        }
+        return i;
+    }
+}
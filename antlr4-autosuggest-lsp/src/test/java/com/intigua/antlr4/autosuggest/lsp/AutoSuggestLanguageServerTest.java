@@ -0,0 +1,253 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.tool.Grammar;
+import org.antlr.v4.tool.LexerGrammar;
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+import com.intigua.antlr4.autosuggest.LexerAndParserFactory;
+
+/**
+ * Runs the server against scripted client sessions.
+ */
+public class AutoSuggestLanguageServerTest {
+    private static final String URI = "file:///query.sql";
+    private static final String GRAMMAR = "grammar q;\n"
+            + "r: 'SELECT' ID 'FROM' ID ('WHERE' ID)?;\n"
+            + "ID: [a-z]+;\n"
+            + "WS: [ \\r\\n]+ -> skip;\n";
+
+    private final List<Map<String, Object>> script = new ArrayList<>();
+    private final Map<Object, Map<String, Object>> responsesById = new HashMap<>();
+    private long debounceMillis = 0;
+    private int nextId = 1;
+
+    @Test
+    public void initialize_shouldAnnounceIncrementalSyncAndCompletion() throws Exception {
+        int id = request("initialize", new LinkedHashMap<>());
+        runSession();
+        Map<String, Object> capabilities = object(result(id).get("capabilities"));
+        assertThat(object(capabilities.get("textDocumentSync")).get("change"), is(2L));
+        assertThat(capabilities.containsKey("completionProvider"), is(true));
+    }
+
+    @Test
+    public void completion_afterIncrementalChanges_shouldCompleteChangedText() throws Exception {
+        didOpen("SELECT a\nFROM b");
+        didChange(1, 6, 1, 6, " W"); // "SELECT a\nFROM b W"
+        int id = completion(1, 8);
+        runSession();
+        assertThat(labels(id), contains("WHERE"));
+        Map<String, Object> range = object(object(firstItem(id).get("textEdit")).get("range"));
+        assertThat(object(range.get("start")).get("character"), is(7L));
+        assertThat(object(range.get("end")).get("character"), is(8L));
+    }
+
+    @Test
+    public void completion_withFullChange_shouldCompleteNewText() throws Exception {
+        didOpen("");
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("text", "SELECT a ");
+        didChange(change);
+        int id = completion(0, 9);
+        runSession();
+        assertThat(labels(id), contains("FROM"));
+    }
+
+    @Test
+    public void completion_supersededByNewerRequest_shouldBeCancelled() throws Exception {
+        debounceMillis = 500;
+        didOpen("SELECT a ");
+        int first = completion(0, 9);
+        int second = completion(0, 9);
+        runSession();
+        assertThat(errorCode(first), is((long) AutoSuggestLanguageServer.REQUEST_CANCELLED));
+        assertThat(labels(second), contains("FROM"));
+    }
+
+    @Test
+    public void completion_followedByChange_shouldAnswerContentModified() throws Exception {
+        debounceMillis = 500;
+        didOpen("SELECT a ");
+        int id = completion(0, 9);
+        didChange(0, 9, 0, 9, "F");
+        runSession();
+        assertThat(errorCode(id), is((long) AutoSuggestLanguageServer.CONTENT_MODIFIED));
+    }
+
+    @Test
+    public void cancelRequest_shouldAnswerPendingCompletionWithError() throws Exception {
+        debounceMillis = 500;
+        didOpen("SELECT a ");
+        int id = completion(0, 9);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("id", (long) id);
+        notification("$/cancelRequest", params);
+        runSession();
+        assertThat(errorCode(id), is((long) AutoSuggestLanguageServer.REQUEST_CANCELLED));
+    }
+
+    @Test
+    public void unknownRequest_shouldAnswerMethodNotFound() throws Exception {
+        int id = request("textDocument/hover", new LinkedHashMap<>());
+        runSession();
+        assertThat(errorCode(id), is((long) AutoSuggestLanguageServer.METHOD_NOT_FOUND));
+    }
+
+    private void didOpen(String text) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("uri", URI);
+        document.put("languageId", "sql");
+        document.put("version", 1L);
+        document.put("text", text);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("textDocument", document);
+        notification("textDocument/didOpen", params);
+    }
+
+    private void didChange(int startLine, int startCharacter, int endLine, int endCharacter, String text) {
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("start", position(startLine, startCharacter));
+        range.put("end", position(endLine, endCharacter));
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("range", range);
+        change.put("text", text);
+        didChange(change);
+    }
+
+    private void didChange(Map<String, Object> change) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("uri", URI);
+        document.put("version", 2L);
+        List<Object> changes = new ArrayList<>();
+        changes.add(change);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("textDocument", document);
+        params.put("contentChanges", changes);
+        notification("textDocument/didChange", params);
+    }
+
+    private int completion(int line, int character) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("uri", URI);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("textDocument", document);
+        params.put("position", position(line, character));
+        return request("textDocument/completion", params);
+    }
+
+    private static Map<String, Object> position(int line, int character) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("line", (long) line);
+        result.put("character", (long) character);
+        return result;
+    }
+
+    private int request(String method, Map<String, Object> params) {
+        int id = nextId++;
+        Map<String, Object> message = notificationMessage(method, params);
+        message.put("id", (long) id);
+        script.add(message);
+        return id;
+    }
+
+    private void notification(String method, Map<String, Object> params) {
+        script.add(notificationMessage(method, params));
+    }
+
+    private static Map<String, Object> notificationMessage(String method, Map<String, Object> params) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("jsonrpc", "2.0");
+        message.put("method", method);
+        message.put("params", params);
+        return message;
+    }
+
+    private void runSession() throws IOException, InterruptedException {
+        notification("exit", null);
+        ByteArrayOutputStream clientOutput = new ByteArrayOutputStream();
+        MessageTransport client = new MessageTransport(new ByteArrayInputStream(new byte[0]), clientOutput);
+        for (Map<String, Object> message : script) {
+            client.write(message);
+        }
+        ByteArrayOutputStream serverOutput = new ByteArrayOutputStream();
+        AutoSuggestLanguageServer server = new AutoSuggestLanguageServer(new GrammarEngine(loadGrammar()),
+                new ByteArrayInputStream(clientOutput.toByteArray()), serverOutput);
+        server.setDebounceMillis(debounceMillis);
+        server.run();
+        MessageTransport responses = new MessageTransport(new ByteArrayInputStream(serverOutput.toByteArray()),
+                new ByteArrayOutputStream());
+        Map<String, Object> response;
+        while ((response = responses.read()) != null) {
+            responsesById.put(response.get("id"), response);
+        }
+    }
+
+    private Map<String, Object> result(int id) {
+        return object(responsesById.get((long) id).get("result"));
+    }
+
+    private long errorCode(int id) {
+        return (Long) object(responsesById.get((long) id).get("error")).get("code");
+    }
+
+    private List<Object> items(int id) {
+        return array(result(id).get("items"));
+    }
+
+    private Map<String, Object> firstItem(int id) {
+        return object(items(id).get(0));
+    }
+
+    private List<String> labels(int id) {
+        return items(id).stream().map(item -> (String) object(item).get("label")).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> object(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> array(Object value) {
+        return (List<Object>) value;
+    }
+
+    static LexerAndParserFactory loadGrammar() {
+        try {
+            LexerGrammar lexerGrammar = new LexerGrammar(GRAMMAR);
+            Grammar grammar = new Grammar(GRAMMAR);
+            return new LexerAndParserFactory() {
+                @Override
+                public Parser createParser(TokenStream tokenStream) {
+                    return grammar.createParserInterpreter(tokenStream);
+                }
+
+                @Override
+                public Lexer createLexer(CharStream input) {
+                    return lexerGrammar.createLexerInterpreter(input);
+                }
+            };
+        } catch (org.antlr.runtime.RecognitionException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.AutoSuggester;
+import com.intigua.antlr4.autosuggest.GrammarEngine;
+
+public class DocumentTokensTest {
+    private final GrammarEngine grammarEngine = new GrammarEngine(AutoSuggestLanguageServerTest.loadGrammar());
+
+    @Test
+    public void replace_shouldMatchLexingTheNewText() {
+        thenReplacingMatchesLexing("SELECT a FROM b", 9, 13, "FR");
+        thenReplacingMatchesLexing("SELECT a FROM b", 8, 8, "bc");
+        thenReplacingMatchesLexing("SELECT a FROM b", 7, 8, "");
+        thenReplacingMatchesLexing("SELECT a FROM b", 6, 7, "");
+        thenReplacingMatchesLexing("SELECT a FROM b", 0, 15, "SELECT x");
+        thenReplacingMatchesLexing("SELECT a # FROM b", 9, 10, "");
+        thenReplacingMatchesLexing("SELECT a FROM b", 9, 9, "# ");
+    }
+
+    @Test
+    public void replace_inLongDocument_shouldRelexOnlyNearTheChange() {
+        String text = String.join("", Collections.nCopies(100, "SELECT a FROM b "));
+        DocumentTokens tokens = new DocumentTokens(grammarEngine, text);
+        tokens.replace(800, 801, text.substring(0, 800) + "WHERE" + text.substring(801));
+        assertThat(tokens.getLastRelexedTokenCount(), lessThanOrEqualTo(4));
+    }
+
+    @Test
+    public void suggesterAt_shouldSuggestLikeLexingThePrefix() {
+        String text = "SELECT a FROM b WHERE c";
+        DocumentTokens tokens = new DocumentTokens(grammarEngine, text);
+        for (int caret = 0; caret <= text.length(); ++caret) {
+            assertThat("caret at " + caret, tokens.suggesterAt(text, caret).suggestCompletions(),
+                    is(new AutoSuggester(grammarEngine, text.substring(0, caret)).suggestCompletions()));
+        }
+    }
+
+    @Test
+    public void suggesterAt_afterLexerError_shouldSuggestLikeLexingThePrefix() {
+        String text = "SELECT a FR#M b";
+        DocumentTokens tokens = new DocumentTokens(grammarEngine, text);
+        for (int caret = 0; caret <= text.length(); ++caret) {
+            assertThat("caret at " + caret, tokens.suggesterAt(text, caret).suggestCompletions(),
+                    is(new AutoSuggester(grammarEngine, text.substring(0, caret)).suggestCompletions()));
+        }
+    }
+
+    private void thenReplacingMatchesLexing(String text, int start, int end, String newText) {
+        DocumentTokens tokens = new DocumentTokens(grammarEngine, text);
+        String changedText = text.substring(0, start) + newText + text.substring(end);
+        tokens.replace(start, end, changedText);
+        assertThat(describe(tokens.getTokens()), is(describe(lex(changedText))));
+    }
+
+    private List<? extends Token> lex(String text) {
+        return grammarEngine.createLexer(text).getAllTokens();
+    }
+
+    private static List<String> describe(List<? extends Token> tokens) {
+        return tokens.stream()
+                .map(t -> t.getType() + ":" + t.getStartIndex() + ":" + t.getStopIndex() + ":" + t.getText())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,40 @@
+package com.intigua.antlr4.autosuggest.lsp;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class TextDocumentTest {
+
+    @Test
+    public void offsetOf_shouldHandleAllLineBreaks() {
+        TextDocument document = new TextDocument("ab\ncd\r\nef\rgh", 1);
+        assertThat(document.offsetOf(0, 1), is(1));
+        assertThat(document.offsetOf(1, 0), is(3));
+        assertThat(document.offsetOf(2, 1), is(8));
+        assertThat(document.offsetOf(3, 2), is(12));
+    }
+
+    @Test
+    public void offsetOf_pastEndOfLine_shouldStopAtLineEnd() {
+        TextDocument document = new TextDocument("ab\ncd", 1);
+        assertThat(document.offsetOf(0, 10), is(2));
+        assertThat(document.offsetOf(5, 0), is(5));
+    }
+
+    @Test
+    public void positionOf_shouldInvertOffsetOf() {
+        TextDocument document = new TextDocument("ab\ncd\r\nef", 1);
+        assertThat(document.positionOf(8), is(new int[] { 2, 1 }));
+        assertThat(document.positionOf(5), is(new int[] { 1, 2 }));
+    }
+
+    @Test
+    public void applyChange_shouldReplaceRange() {
+        TextDocument document = new TextDocument("SELECT a\nFROM b", 1);
+        document.applyChange(0, 7, 1, 4, "x FROM", 2);
+        assertThat(document.getText(), is("SELECT x FROM b"));
+        assertThat(document.getVersion(), is(2L));
+    }
+}
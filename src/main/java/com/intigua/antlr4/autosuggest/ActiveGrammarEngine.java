@@ -0,0 +1,46 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The current version of a grammar's engine, for grammars that change at runtime. A new version is built while the
+ * current one keeps serving, then replaced atomically: requests that already took the current engine finish with it,
+ * and later ones get the new engine. Neither requests nor reloads take a lock.
+ */
+public class ActiveGrammarEngine {
+    private final AtomicReference<GrammarEngine> current;
+
+    public ActiveGrammarEngine(GrammarEngine initialEngine) {
+        this.current = new AtomicReference<>(initialEngine);
+    }
+
+    public GrammarEngine get() {
+        return current.get();
+    }
+
+    /**
+     * Creates a suggester bound to the current engine, which it keeps using even if the engine is replaced.
+     */
+    public AutoSuggester newSuggester(String input) {
+        return new AutoSuggester(current.get(), input);
+    }
+
+    /**
+     * Makes the given engine the current one.
+     *
+     * @return the engine it replaced
+     */
+    public GrammarEngine swap(GrammarEngine newEngine) {
+        return current.getAndSet(newEngine);
+    }
+
+    /**
+     * Builds an engine for the given grammar, typically a {@link SerializedAtnLexerAndParserFactory}, and makes it
+     * the current one. The current engine keeps serving while the new one is built.
+     *
+     * @return the engine it replaced
+     */
+    public GrammarEngine reload(LexerAndParserFactory lexerAndParserFactory) {
+        return swap(new GrammarEngine(lexerAndParserFactory));
+    }
+}
@@ -0,0 +1,125 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.IntervalSet;
+
+/**
+ * Removes the parts of a compiled parser ATN that no input can use, once when the grammar is loaded:
+ * <ol>
+ * <li>Token edges are narrowed to the token types the lexer can emit, and removed when none is left. A negated set
+ * only loses its edge when every token type it does not exclude is unproducible.</li>
+ * <li>A state is productive if the end of its rule can be reached from it; rule stop states are, and so is any
+ * state with an edge to a productive state, where a rule edge also needs the invoked rule's start state to be
+ * productive. This is computed as a fixed point, and edges into unproductive states are removed.</li>
+ * </ol>
+ * A configuration in an unproductive state cannot lead to a complete parse, so suggestions made there are dropped
+ * along with the states.
+ */
+final class AtnPruner {
+    private final CompiledAtn atn;
+    private final IntervalSet producibleTokenTypes;
+    private final int edgeCount;
+    private final boolean[] liveEdges;
+    private final IntervalSet[] narrowedSets;
+    private final boolean[] productive;
+    private final Set<Integer> unproducibleTokenTypes = new TreeSet<>();
+    private int narrowedSetCount;
+
+    /**
+     * @param producibleTokenTypes
+     *            the token types the lexer can emit, or null if unknown, in which case all are assumed to be
+     */
+    AtnPruner(CompiledAtn atn, IntervalSet producibleTokenTypes) {
+        this.atn = atn;
+        this.producibleTokenTypes = producibleTokenTypes;
+        this.edgeCount = atn.getEdgeCount();
+        this.liveEdges = new boolean[edgeCount];
+        this.narrowedSets = new IntervalSet[edgeCount];
+        this.productive = new boolean[atn.getStateCount()];
+        markProducibleEdges();
+        markProductiveStates();
+    }
+
+    private void markProducibleEdges() {
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            byte kind = atn.kind(edge);
+            if (producibleTokenTypes == null || (kind != CompiledAtn.ATOM && kind != CompiledAtn.SET)) {
+                liveEdges[edge] = true;
+                continue;
+            }
+            IntervalSet label = (kind == CompiledAtn.ATOM) ? IntervalSet.of(atn.label(edge))
+                    : atn.getSet(atn.label(edge));
+            IntervalSet producible = label.and(producibleTokenTypes);
+            // A negated set is compiled as its complement, but only refers to the token types it excludes
+            IntervalSet referenced = (atn.getTransition(edge) instanceof NotSetTransition)
+                    ? atn.getTransition(edge).label() : label;
+            for (Interval interval : referenced.subtract(producibleTokenTypes).getIntervals()) {
+                for (int tokenType = interval.a; tokenType <= interval.b; ++tokenType) {
+                    unproducibleTokenTypes.add(tokenType);
+                }
+            }
+            liveEdges[edge] = !producible.isNil();
+            if (kind == CompiledAtn.SET && liveEdges[edge] && !producible.equals(label)) {
+                narrowedSets[edge] = producible;
+                ++narrowedSetCount;
+            }
+        }
+    }
+
+    private void markProductiveStates() {
+        for (int s = 0; s < productive.length; ++s) {
+            productive[s] = atn.isRuleStop(s);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int s = 0; s < productive.length; ++s) {
+                if (!productive[s] && hasLiveEdge(s)) {
+                    productive[s] = true;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private boolean hasLiveEdge(int stateNumber) {
+        for (int edge = atn.firstEdge(stateNumber); edge < atn.endEdge(stateNumber); ++edge) {
+            if (isLive(edge)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLive(int edge) {
+        return liveEdges[edge] && productive[atn.target(edge)]
+                && (atn.kind(edge) != CompiledAtn.RULE || productive[atn.label(edge)]);
+    }
+
+    CompiledAtn getPrunedAtn() {
+        return atn.withEdges(this::isLive, edge -> narrowedSets[edge]);
+    }
+
+    PruningReport getReport() {
+        List<Integer> unproductiveStates = new ArrayList<>();
+        for (int s = 0; s < productive.length; ++s) {
+            if (!productive[s] && atn.getState(s) != null) {
+                unproductiveStates.add(s);
+            }
+        }
+        int removedEdgeCount = 0;
+        for (int edge = 0; edge < edgeCount; ++edge) {
+            removedEdgeCount += isLive(edge) ? 0 : 1;
+        }
+        unproducibleTokenTypes.remove(Token.EOF);
+        return new PruningReport(productive.length, edgeCount, unproductiveStates, removedEdgeCount,
+                narrowedSetCount, unproducibleTokenTypes, producibleTokenTypes != null);
+    }
+}
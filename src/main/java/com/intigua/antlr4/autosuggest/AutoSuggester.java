@@ -1,17 +1,30 @@
 package com.intigua.antlr4.autosuggest;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
 import org.antlr.v4.runtime.atn.ATNState;
-import org.antlr.v4.runtime.atn.AtomTransition;
-import org.antlr.v4.runtime.atn.SetTransition;
-import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.PredicateTransition;
 import org.antlr.v4.runtime.misc.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,39 +36,304 @@ import com.intigua.antlr4.autosuggest.LexerWrapper.TokenizationResult;
  */
 public class AutoSuggester {
     private static final Logger logger = LoggerFactory.getLogger(AutoSuggester.class);
+    private static final int DEFAULT_RECOVERY_WORK_LIMIT = 10000;
+    private static final int DEFAULT_MAX_SYMBOL_SUGGESTIONS = 100;
 
+    private final GrammarEngine grammarEngine;
     private final ParserWrapper parserWrapper;
     private final LexerWrapper lexerWrapper;
     private final String input;
     private final Set<String> collectedSuggestions = new HashSet<>();
+    private final Map<String, Integer> tokenTypesOfSuggestions = new HashMap<>();
+    private final Set<String> suggestionsCompletingLastToken = new HashSet<>();
 
     private List<? extends Token> inputTokens;
+    private TokenizationResult providedTokenization;
     private String untokenizedText = "";
+    private int lexerModeAtEndOfInput = Lexer.DEFAULT_MODE;
     private String indent = "";
     private CasePreference casePreference = CasePreference.BOTH;
+    private int maxRecoveryEdits = 0;
+    private int recoveryWorkLimit = DEFAULT_RECOVERY_WORK_LIMIT;
+    private final Map<Integer, SymbolProvider> symbolProvidersByTokenType = new HashMap<>();
+    private final Map<Integer, SymbolProvider> symbolProvidersByRuleIndex = new HashMap<>();
+    private int maxSymbolSuggestions = DEFAULT_MAX_SYMBOL_SUGGESTIONS;
+    private int maxPhraseLength = 1;
+    private UsageModel usageModel;
+    private PredicateEvaluator predicateEvaluator = PredicateEvaluator.ALL_TRUE;
+    private final Map<PredicateCall, Boolean> predicateResults = new HashMap<>();
+    private ParserWalkListener walkListener;
+    private final WorkCounters workCounters = new WorkCounters();
+    private final SuggestionTracer tracer;
 
-    private Map<ATNState, Integer> parserStateToTokenListIndexWhereLastVisited = new HashMap<>();
+    private Map<ParserConfig, Integer> parserConfigsAtEndOfInput = new LinkedHashMap<>();
+    private boolean recovering;
+    private int remainingRecoveryEdits;
+    private int remainingRecoveryWork;
+    private boolean recoveryWorkExhausted;
+
+    private Map<ParserConfig, Integer> parserConfigToTokenListIndexWhereLastVisited = new HashMap<>();
 
     public AutoSuggester(LexerAndParserFactory lexerAndParserFactory, String input) {
-        this.lexerWrapper = new LexerWrapper(lexerAndParserFactory);
-        this.parserWrapper = new ParserWrapper(lexerAndParserFactory, lexerWrapper.getVocabulary());
+        this(new GrammarEngine(lexerAndParserFactory), input);
+    }
+
+    /**
+     * Suggests completions using a grammar engine shared between requests, which saves rebuilding the per-grammar
+     * structures each time.
+     */
+    public AutoSuggester(GrammarEngine grammarEngine, String input) {
+        this.grammarEngine = grammarEngine;
+        this.lexerWrapper = grammarEngine.getLexerWrapper();
+        this.parserWrapper = grammarEngine.getParserWrapper();
+        this.tracer = grammarEngine.getTracer();
         this.input = input;
     }
 
+    /**
+     * Suggests completions using tokens the caller already lexed for the input, e.g. for syntax highlighting, so the
+     * input is not lexed again. The tokens must come from a lexer of the same grammar, and may include tokens of
+     * other channels and EOF, which are ignored like when the suggester lexes the input itself.
+     *
+     * @param input
+     *            the text up to the caret; suggested completions are still checked by lexing it with each of them
+     * @param inputTokens
+     *            the tokens of the input; tokens starting at or after its end are ignored
+     * @param untokenizedText
+     *            the end of the input that the lexer could not make a token of, reported to its error listener
+     */
+    public AutoSuggester(GrammarEngine grammarEngine, String input, List<? extends Token> inputTokens,
+            String untokenizedText) {
+        this(grammarEngine, input);
+        this.providedTokenization = LexerWrapper.fromProvidedTokens(input, inputTokens, untokenizedText);
+    }
+
+    /**
+     * Like {@link #AutoSuggester(GrammarEngine, String, List, String)}, reading all tokens of the given stream.
+     */
+    public AutoSuggester(GrammarEngine grammarEngine, String input, BufferedTokenStream tokenStream,
+            String untokenizedText) {
+        this(grammarEngine, input, getAllTokens(tokenStream), untokenizedText);
+    }
+
+    private static List<Token> getAllTokens(BufferedTokenStream tokenStream) {
+        tokenStream.fill();
+        return tokenStream.getTokens();
+    }
+
+    /**
+     * The mode the caller's lexer ended in, when the caller provided the tokens. Defaults to the default mode.
+     */
+    public void setLexerModeAtEndOfInput(int lexerMode) {
+        if (providedTokenization == null) {
+            throw new IllegalStateException("The lexer mode is only set for tokens provided by the caller");
+        }
+        providedTokenization.lexerMode = lexerMode;
+    }
+
     public void setCasePreference(CasePreference casePreference) {
         this.casePreference = casePreference;
     }
+
+    /**
+     * Enables error recovery: when the input cannot be parsed up to its end, suggestions are made as if up to
+     * maxEdits tokens were deleted from or inserted into the input. Repairs with fewer edits are preferred, so
+     * suggestions only come from the cheapest repairs found. Disabled (0) by default.
+     */
+    public void setMaxRecoveryEdits(int maxEdits) {
+        this.maxRecoveryEdits = maxEdits;
+    }
+
+    /**
+     * Limits the number of parser states visited while looking for a repair, bounding the worst-case cost of error
+     * recovery. When the limit is reached, the search stops with whatever has been found so far.
+     */
+    public void setRecoveryWorkLimit(int maxVisitedStates) {
+        this.recoveryWorkLimit = maxVisitedStates;
+    }
+
+    /**
+     * Adds symbols from the given provider wherever the given token type may come next.
+     */
+    public void addSymbolProvider(int tokenType, SymbolProvider symbolProvider) {
+        this.symbolProvidersByTokenType.put(tokenType, symbolProvider);
+    }
+
+    /**
+     * Adds symbols from the given provider wherever a token may come next inside the given parser rule. When rules
+     * are nested, the innermost rule with a provider is used; a provider for the token type takes precedence.
+     */
+    public void addSymbolProviderForRule(String parserRuleName, SymbolProvider symbolProvider) {
+        int ruleIndex = Arrays.asList(parserWrapper.getRuleNames()).indexOf(parserRuleName);
+        if (ruleIndex < 0) {
+            throw new IllegalArgumentException("No parser rule named " + parserRuleName);
+        }
+        this.symbolProvidersByRuleIndex.put(ruleIndex, symbolProvider);
+    }
+
+    /**
+     * The work done so far by this suggester, for detecting grammars or inputs that make suggesting expensive.
+     */
+    public WorkCounters getWorkCounters() {
+        return workCounters;
+    }
+
+    void setParserWalkListener(ParserWalkListener walkListener) {
+        this.walkListener = walkListener;
+    }
+
+    /**
+     * Also suggests phrases of up to the given number of tokens, where the grammar allows only one token after each
+     * of the phrase's tokens, such as ORDER BY or IS NOT NULL. Phrases are suggested in addition to their first
+     * token. Defaults to 1, meaning single tokens only.
+     */
+    public void setMaxPhraseLength(int maxTokens) {
+        if (maxTokens < 1 || maxTokens > ParserWrapper.MAX_CONTINUATION_LENGTH + 1) {
+            throw new IllegalArgumentException("Phrases can have 1 to " + (ParserWrapper.MAX_CONTINUATION_LENGTH + 1)
+                    + " tokens: " + maxTokens);
+        }
+        this.maxPhraseLength = maxTokens;
+    }
+
+    /**
+     * Ranks the results of {@link #suggestRankedCompletions(int)} by how often their token types followed the input's
+     * last token types in the corpus the model was trained on.
+     *
+     * @throws IllegalArgumentException
+     *             if the model was trained for another grammar
+     */
+    public void setUsageModel(UsageModel usageModel) {
+        if (!usageModel.getGrammarHash().equals(grammarEngine.getContentHash())) {
+            throw new IllegalArgumentException("The usage model was trained for another grammar");
+        }
+        this.usageModel = usageModel;
+    }
+
+    /**
+     * Evaluates the grammar's semantic predicates, so alternatives they disable are not followed. Without an
+     * evaluator, all of them hold. Precedence predicates are always evaluated. Results are cached per predicate,
+     * rule invocation stack and token index.
+     */
+    public void setPredicateEvaluator(PredicateEvaluator predicateEvaluator) {
+        this.predicateEvaluator = predicateEvaluator;
+        this.predicateResults.clear();
+    }
+
+    /**
+     * Limits the number of symbols requested from each symbol provider.
+     */
+    public void setMaxSymbolSuggestions(int maxSymbolSuggestions) {
+        this.maxSymbolSuggestions = maxSymbolSuggestions;
+    }
     
     public Collection<String> suggestCompletions() {
-        tokenizeInput();
-        runParserAtnAndCollectSuggestions();
+        SuggestionTracer.Request request = tracer.requestStarted(input.length());
+        try {
+            tokenizeInput();
+            runParserAtnAndCollectSuggestions();
+        } finally {
+            request.finish(collectedSuggestions.size(), recoveryWorkExhausted);
+        }
         return collectedSuggestions;
     }
 
+    /**
+     * Finds the token types the parser accepts next, without the lexer work of {@link #suggestCompletions()}: no
+     * texts are enumerated from the lexer ATN and no candidates are lexed. Like completions, they are expected after
+     * the input's last complete token, so any untokenized text at its end is ignored.
+     *
+     * @return the expected token types in increasing order, excluding EOF
+     */
+    public List<ExpectedToken> suggestExpectedTokens() {
+        List<ExpectedToken> result = new ArrayList<>();
+        SuggestionTracer.Request request = tracer.requestStarted(input.length());
+        try {
+            tokenizeInput();
+            runParserAtn();
+            Map<Integer, Set<String>> ruleNamesByTokenType = new TreeMap<>();
+            String[] ruleNames = parserWrapper.getRuleNames();
+            for (Map.Entry<ParserConfig, Integer> configAndFrames : parserConfigsAtEndOfInput.entrySet()) {
+                collectExpectedTokens(configAndFrames.getKey(), configAndFrames.getValue(),
+                        (tokenType, state, stack) -> {
+                            if (tokenType != Token.EOF) {
+                                ruleNamesByTokenType.computeIfAbsent(tokenType, t -> new TreeSet<>())
+                                        .add(ruleNames[state.ruleIndex]);
+                            }
+                        }, new HashSet<>());
+            }
+            Vocabulary vocabulary = lexerWrapper.getVocabulary();
+            ruleNamesByTokenType.forEach((tokenType, names) -> result
+                    .add(new ExpectedToken(tokenType, vocabulary.getDisplayName(tokenType), names)));
+        } finally {
+            request.finish(result.size(), recoveryWorkExhausted);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #suggestCompletions()}, returning only the best maxResults suggestions, best first. Suggestions are
+     * scored by the {@link #setUsageModel(UsageModel) usage model} for the token type they complete, following the
+     * input's last tokens, or the tokens before the last one for symbols completing it. Ties, including all
+     * suggestions when there is no model, are ordered alphabetically. Only maxResults suggestions are kept while
+     * scoring, so the full set is never sorted.
+     */
+    public List<String> suggestRankedCompletions(int maxResults) {
+        Collection<String> suggestions = suggestCompletions();
+        if (maxResults <= 0) {
+            return Collections.emptyList();
+        }
+        int[] precedingTokenTypes = lastTokenTypes(inputTokens.size());
+        int[] tokenTypesBeforeLastToken = lastTokenTypes(inputTokens.size() - 1);
+        Comparator<ScoredSuggestion> bestFirst = Comparator.comparingDouble((ScoredSuggestion s) -> s.score)
+                .reversed().thenComparing(s -> s.text);
+        PriorityQueue<ScoredSuggestion> worstFirst = new PriorityQueue<>(maxResults + 1, bestFirst.reversed());
+        for (String suggestion : suggestions) {
+            Integer tokenType = tokenTypesOfSuggestions.get(suggestion);
+            int[] context = suggestionsCompletingLastToken.contains(suggestion) ? tokenTypesBeforeLastToken
+                    : precedingTokenTypes;
+            double score = (usageModel == null || tokenType == null) ? 0 : usageModel.score(context, tokenType);
+            worstFirst.add(new ScoredSuggestion(suggestion, score));
+            if (worstFirst.size() > maxResults) {
+                worstFirst.poll();
+            }
+        }
+        List<ScoredSuggestion> best = new ArrayList<>(worstFirst);
+        best.sort(bestFirst);
+        return best.stream().map(s -> s.text).collect(Collectors.toList());
+    }
+
+    /**
+     * The types of the last two of the first tokenCount input tokens.
+     */
+    private int[] lastTokenTypes(int tokenCount) {
+        return inputTokens.subList(Math.max(0, tokenCount - 2), Math.max(0, tokenCount)).stream()
+                .mapToInt(Token::getType).toArray();
+    }
+
+    private static final class ScoredSuggestion {
+        final String text;
+        final double score;
+
+        ScoredSuggestion(String text, double score) {
+            this.text = text;
+            this.score = score;
+        }
+    }
+
     private void tokenizeInput() {
-        TokenizationResult tokenizationResult = lexerWrapper.tokenizeNonDefaultChannel(this.input);
+        TokenizationResult tokenizationResult = providedTokenization;
+        if (tokenizationResult == null) {
+            SuggestionTracer.Span span = tracer.phaseStarted(SuggestionTracer.Phase.TOKENIZATION);
+            try {
+                tokenizationResult = lexerWrapper.tokenizeNonDefaultChannel(this.input);
+            } finally {
+                span.finish();
+            }
+            workCounters.tokenized();
+        }
         this.inputTokens = tokenizationResult.tokens;
         this.untokenizedText = tokenizationResult.untokenizedText;
+        this.lexerModeAtEndOfInput = tokenizationResult.lexerMode;
         if (logger.isDebugEnabled()) {
             logger.debug("TOKENS FOUND IN FIRST PASS:");
             for (Token token : this.inputTokens) {
@@ -64,150 +342,783 @@ public class AutoSuggester {
         }
     }
 
+    /**
+     * Suggests replacements for the word being typed that are close to, rather than exact continuations of, what
+     * was typed, e.g. SELECT for SELCT or slct. Candidates are the grammar's keyword-like tokens (see
+     * {@link KeywordIndex}) that the parser accepts at that point, ranked by edit distance.
+     *
+     * The word being typed is the untokenized text at the end of the input, from the first character the lexer could
+     * not match, or otherwise the last token if nothing follows it. Each suggestion is a
+     * complete token text meant to replace that word.
+     */
+    public List<FuzzySuggestion> suggestFuzzyCompletions(int maxEditDistance, int maxResults) {
+        tokenizeInput();
+        String typedWord = this.untokenizedText;
+        if (typedWord.isEmpty() && isLastTokenAtEndOfInput()) {
+            typedWord = inputTokens.get(inputTokens.size() - 1).getText();
+            this.inputTokens = inputTokens.subList(0, inputTokens.size() - 1);
+        }
+        if (typedWord.isEmpty()) {
+            return Collections.emptyList();
+        }
+        runParserAtn();
+        Set<Integer> expectedTokenTypes = new HashSet<>();
+        for (Map.Entry<ParserConfig, Integer> configAndFrames : parserConfigsAtEndOfInput.entrySet()) {
+            fillParserTransitionLabels(configAndFrames.getKey(), configAndFrames.getValue(), expectedTokenTypes,
+                    new HashSet<>());
+        }
+        KeywordIndex keywordIndex = lexerWrapper.getKeywordIndex(lexerModeAtEndOfInput, casePreference);
+        return keywordIndex.search(typedWord, expectedTokenTypes, maxEditDistance, maxResults);
+    }
+
+    /**
+     * Computes the token types expected at every token boundary of the input, for whole-document features such as
+     * linting, in one forward pass over the tokens instead of one suggestion request per prefix.
+     *
+     * Each pass step takes the parser configurations reached after a token, follows their epsilon and rule
+     * transitions once each, and keeps the configurations that consume the next token. Unlike suggesting, the walk is
+     * not repeated for each path reaching a configuration, and error recovery is not attempted.
+     */
+    public DocumentAnalysis analyzeTokenBoundaries() {
+        tokenizeInput();
+        List<Set<Integer>> expectedTokenTypes = new ArrayList<>();
+        List<Set<Integer>> reachableParserStates = new ArrayList<>();
+        CompiledAtn atn = parserWrapper.getCompiledAtn();
+        Map<ParserConfig, Integer> configsAtTokenIndex = new LinkedHashMap<>();
+        configsAtTokenIndex.put(new ParserConfig(parserWrapper.getAtnState(0), ParserStack.empty()), 0);
+        for (int tokenListIndex = 0; !configsAtTokenIndex.isEmpty(); ++tokenListIndex) {
+            Token nextToken = haveMoreTokens(tokenListIndex) ? inputTokens.get(tokenListIndex) : null;
+            Set<Integer> expectedHere = new TreeSet<>();
+            Set<Integer> statesHere = new TreeSet<>();
+            Map<ParserConfig, Integer> configsAfterNextToken = new LinkedHashMap<>();
+            Set<ParserConfig> visitedConfigs = new HashSet<>();
+            Deque<ConfigStep> steps = new ArrayDeque<>();
+            configsAtTokenIndex.forEach((config, frames) -> steps.addLast(new ConfigStep(config, frames, false)));
+            while (!steps.isEmpty()) {
+                ConfigStep step = steps.pop();
+                if (!visitedConfigs.add(step.config)) {
+                    continue;
+                }
+                workCounters.parserStateEntered();
+                ATNState parserState = step.config.getState();
+                statesHere.add(parserState.stateNumber);
+                if (!isReturnToKnownCaller(parserState, step.config.getStack())) {
+                    int firstEdge = atn.firstEdge(parserState.stateNumber);
+                    int endEdge = atn.endEdge(parserState.stateNumber);
+                    workCounters.parserTransitionsFollowed(endEdge - firstEdge);
+                    for (int edge = firstEdge; edge < endEdge; ++edge) {
+                        byte kind = atn.kind(edge);
+                        if (kind == CompiledAtn.ATOM || kind == CompiledAtn.SET) {
+                            addExpectedTokenTypes(atn, edge, expectedHere);
+                            if (nextToken != null && atn.matches(edge, nextToken.getType())) {
+                                configsAfterNextToken.putIfAbsent(
+                                        new ParserConfig(atn.getState(atn.target(edge)), step.config.getStack()), 0);
+                            }
+                        }
+                    }
+                }
+                pushEpsilonSteps(step, tokenListIndex, steps);
+            }
+            expectedTokenTypes.add(expectedHere);
+            reachableParserStates.add(statesHere);
+            if (nextToken == null) {
+                break;
+            }
+            configsAtTokenIndex = configsAfterNextToken;
+        }
+        return new DocumentAnalysis(inputTokens, expectedTokenTypes, reachableParserStates);
+    }
+
+    private static void addExpectedTokenTypes(CompiledAtn atn, int edge, Set<Integer> result) {
+        if (atn.kind(edge) == CompiledAtn.ATOM) {
+            if (atn.label(edge) >= 1) { // Not EOF (-1)
+                result.add(atn.label(edge));
+            }
+            return;
+        }
+        for (Interval interval : atn.getSet(atn.label(edge)).getIntervals()) {
+            for (int tokenType = Math.max(1, interval.a); tokenType <= interval.b; ++tokenType) { // Not EOF (-1)
+                result.add(tokenType);
+            }
+        }
+    }
+
+    private boolean isLastTokenAtEndOfInput() {
+        // Token indices count code points, not UTF-16 chars
+        return !inputTokens.isEmpty()
+                && inputTokens.get(inputTokens.size() - 1).getStopIndex() == input.codePointCount(0, input.length()) - 1;
+    }
+
     private void runParserAtnAndCollectSuggestions() {
+        runParserAtn();
+        suggestNextTokensForEndConfigs();
+        if (!symbolProvidersByTokenType.isEmpty() || !symbolProvidersByRuleIndex.isEmpty()) {
+            collectSymbolSuggestions(untokenizedText, false);
+            collectSymbolSuggestionsForLastToken();
+        }
+    }
+
+    /**
+     * A partially typed symbol is often a complete token already (e.g. an identifier), in which case the symbol
+     * providers are consulted for the position before it, with its text as the prefix.
+     */
+    private void collectSymbolSuggestionsForLastToken() {
+        if (!untokenizedText.isEmpty() || !isLastTokenAtEndOfInput()) {
+            return;
+        }
+        List<? extends Token> allInputTokens = this.inputTokens;
+        try {
+            this.inputTokens = allInputTokens.subList(0, allInputTokens.size() - 1);
+            this.parserConfigsAtEndOfInput = new LinkedHashMap<>();
+            runParserAtn();
+            collectSymbolSuggestions(allInputTokens.get(allInputTokens.size() - 1).getText(), true);
+        } finally {
+            this.inputTokens = allInputTokens;
+        }
+    }
+
+    private void collectSymbolSuggestions(String typedWord, boolean completingLastToken) {
+        Map<SymbolProvider, Integer> tokenTypesBySymbolProvider = new LinkedHashMap<>();
+        for (Map.Entry<ParserConfig, Integer> configAndFrames : parserConfigsAtEndOfInput.entrySet()) {
+            collectExpectedTokens(configAndFrames.getKey(), configAndFrames.getValue(), (tokenType, state, stack) -> {
+                SymbolProvider symbolProvider = findSymbolProvider(tokenType, state, stack);
+                if (symbolProvider != null) {
+                    tokenTypesBySymbolProvider.putIfAbsent(symbolProvider, tokenType);
+                }
+            }, new HashSet<>());
+        }
+        tokenTypesBySymbolProvider.forEach((symbolProvider, tokenType) -> {
+            for (String symbol : symbolProvider.suggestSymbols(typedWord, maxSymbolSuggestions)) {
+                if (symbol.length() > typedWord.length() && symbol.startsWith(typedWord)) {
+                    String suggestion = symbol.substring(typedWord.length());
+                    collectedSuggestions.add(suggestion);
+                    if (tokenTypesOfSuggestions.putIfAbsent(suggestion, tokenType) == null && completingLastToken) {
+                        suggestionsCompletingLastToken.add(suggestion);
+                    }
+                }
+            }
+        });
+    }
+
+    private SymbolProvider findSymbolProvider(int tokenType, ATNState parserState, ParserStack stack) {
+        SymbolProvider result = symbolProvidersByTokenType.get(tokenType);
+        if (result == null) {
+            result = symbolProvidersByRuleIndex.get(parserState.ruleIndex);
+        }
+        for (ParserStack frame = stack; result == null && !frame.isEmpty(); frame = frame.pop()) {
+            result = symbolProvidersByRuleIndex.get(frame.getReturnState().ruleIndex);
+        }
+        return result;
+    }
+
+    private void runParserAtn() {
         ATNState initialState = this.parserWrapper.getAtnState(0);
         logger.debug("Parser initial state: " + initialState);
-        parseAndCollectTokenSuggestions(initialState, 0);
+        SuggestionTracer.Span span = tracer.phaseStarted(SuggestionTracer.Phase.PARSER_WALK);
+        try {
+            walkParserAtn(initialState);
+            if (parserConfigsAtEndOfInput.isEmpty() && maxRecoveryEdits > 0) {
+                runParserAtnWithErrorRecovery(initialState);
+            }
+        } finally {
+            span.finish();
+        }
     }
 
     /**
-     * Recursive through the parser ATN to process all tokens. When successful (out of tokens) - collect completion
-     * suggestions.
+     * Repeats the walk with a growing edit budget, so the first pass that reaches the end of the input uses the
+     * cheapest possible repair.
      */
-    private void parseAndCollectTokenSuggestions(ATNState parserState, int tokenListIndex) {
-        indent = indent + "  ";
-        if (didVisitParserStateOnThisTokenIndex(parserState, tokenListIndex)) {
+    private void runParserAtnWithErrorRecovery(ATNState initialState) {
+        recovering = true;
+        remainingRecoveryWork = recoveryWorkLimit;
+        for (int allowedEdits = 1; allowedEdits <= maxRecoveryEdits; ++allowedEdits) {
+            logger.debug("Input could not be parsed, retrying with up to " + allowedEdits + " edits");
+            remainingRecoveryEdits = allowedEdits;
+            walkParserAtn(initialState);
+            if (!parserConfigsAtEndOfInput.isEmpty() || remainingRecoveryWork <= 0) {
+                break;
+            }
+        }
+        remainingRecoveryEdits = 0;
+        recovering = false;
+        recoveryWorkExhausted |= remainingRecoveryWork < 0;
+    }
+
+    /**
+     * One step of the depth first walk through the parser ATN. The walk keeps its steps on an explicit stack rather
+     * than recursing, since it goes one level deeper per token and per epsilon transition, and long inputs would
+     * overflow the thread's stack. A step pushes the steps it leads to in reverse, so they run in the same order
+     * recursion would have run them, and pushes an EXIT step first to undo its bookkeeping once they are all done.
+     */
+    private static final class WalkStep {
+        enum Kind {
+            ENTER_TOKEN_INDEX, VISIT, DELETE_TOKEN, INSERT_TOKEN, RESTORE_EDIT, EXIT
+        }
+
+        final Kind kind;
+        final ATNState state;
+        final ParserStack stack;
+        final int framesPushedOnThisToken;
+        final int tokenListIndex;
+        final Integer previousTokenListIndex; // Of the visited config, restored on EXIT
+
+        WalkStep(Kind kind, ATNState state, ParserStack stack, int framesPushedOnThisToken, int tokenListIndex) {
+            this(kind, state, stack, framesPushedOnThisToken, tokenListIndex, null);
+        }
+
+        WalkStep(Kind kind, ATNState state, ParserStack stack, int framesPushedOnThisToken, int tokenListIndex,
+                Integer previousTokenListIndex) {
+            this.kind = kind;
+            this.state = state;
+            this.stack = stack;
+            this.framesPushedOnThisToken = framesPushedOnThisToken;
+            this.tokenListIndex = tokenListIndex;
+            this.previousTokenListIndex = previousTokenListIndex;
+        }
+    }
+
+    private void walkParserAtn(ATNState initialState) {
+        Deque<WalkStep> steps = new ArrayDeque<>();
+        steps.push(new WalkStep(WalkStep.Kind.ENTER_TOKEN_INDEX, initialState, ParserStack.empty(), 0, 0));
+        while (!steps.isEmpty()) {
+            WalkStep step = steps.pop();
+            switch (step.kind) {
+            case ENTER_TOKEN_INDEX:
+                enterTokenIndex(step, steps);
+                break;
+            case VISIT:
+                parseAndCollectTokenSuggestions(step, steps);
+                break;
+            case DELETE_TOKEN:
+                deleteTokenIfRecovering(step, steps);
+                break;
+            case INSERT_TOKEN:
+                insertTokenIfRecovering(step, steps);
+                break;
+            case RESTORE_EDIT:
+                ++remainingRecoveryEdits;
+                break;
+            case EXIT:
+                exitParserState(step);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Continues the walk from a state reached right after consuming a token. During error recovery, this is also
+     * where the next token may be deleted: deleting it from any later state of the same epsilon closure would reach
+     * the same configurations.
+     */
+    private static void enterTokenIndex(WalkStep step, Deque<WalkStep> steps) {
+        steps.push(new WalkStep(WalkStep.Kind.DELETE_TOKEN, step.state, step.stack, 0, step.tokenListIndex));
+        steps.push(new WalkStep(WalkStep.Kind.VISIT, step.state, step.stack, 0, step.tokenListIndex));
+    }
+
+    private void deleteTokenIfRecovering(WalkStep step, Deque<WalkStep> steps) {
+        if (remainingRecoveryEdits == 0 || !haveMoreTokens(step.tokenListIndex)) {
+            return;
+        }
+        logger.debug(indent + "Recovery: deleting token " + inputTokens.get(step.tokenListIndex));
+        --remainingRecoveryEdits;
+        steps.push(new WalkStep(WalkStep.Kind.RESTORE_EDIT, null, null, 0, 0));
+        steps.push(new WalkStep(WalkStep.Kind.ENTER_TOKEN_INDEX, step.state, step.stack, 0, step.tokenListIndex + 1));
+    }
+
+    /**
+     * Walks the parser ATN to process all tokens. When successful (out of tokens) - collect completion suggestions.
+     *
+     * The rule invocation stack makes sure that when a rule ends, the walk returns only to the state following the
+     * invocation that actually led there. framesPushedOnThisToken counts the stack frames added since the last token
+     * was consumed, which is what it takes to detect a rule invoking itself without consuming anything.
+     */
+    private void parseAndCollectTokenSuggestions(WalkStep step, Deque<WalkStep> steps) {
+        if (isRecoveryWorkExhausted()) {
+            return;
+        }
+        ATNState parserState = step.state;
+        ParserStack stack = step.stack;
+        int framesPushedOnThisToken = step.framesPushedOnThisToken;
+        int tokenListIndex = step.tokenListIndex;
+        ParserConfig config = new ParserConfig(parserState, stack);
+        if (didVisitParserConfigOnThisTokenIndex(config, tokenListIndex)) {
             logger.debug(indent + "State " + parserState + " had already been visited while processing token "
                     + tokenListIndex + ", backtracking to avoid infinite loop.");
+            if (walkListener != null) {
+                walkListener.loopCut(parserState);
+            }
             return;
         }
-        Integer previousTokenListIndexForThisState = setParserStateLastVisitedOnThisTokenIndex(parserState, tokenListIndex);
-        try {
-            if(logger.isDebugEnabled()) {
-                logger.debug(indent + "State: " + parserWrapper.toString(parserState) );
-                logger.debug(indent + "State available transitions: " + parserWrapper.transitionsStr(parserState));
-            }
+        indent = indent + "  ";
+        Integer previousTokenListIndexForThisConfig = setParserConfigLastVisitedOnThisTokenIndex(config, tokenListIndex);
+        workCounters.parserStateEntered();
+        if (walkListener != null) {
+            walkListener.stateEntered(parserState, tokenListIndex);
+        }
+        steps.push(new WalkStep(WalkStep.Kind.EXIT, parserState, stack, framesPushedOnThisToken, tokenListIndex,
+                previousTokenListIndexForThisConfig));
+        if(logger.isDebugEnabled()) {
+            logger.debug(indent + "State: " + parserWrapper.toString(parserState) + " stack: " + stack);
+            logger.debug(indent + "State available transitions: " + parserWrapper.transitionsStr(parserState));
+        }
 
-            if (!haveMoreTokens(tokenListIndex)) { // stop condition for recursion
-                suggestNextTokensForParserState(parserState);
-                return;
+        if (!haveMoreTokens(tokenListIndex)) { // stop condition
+            logger.debug(indent + "Reached end of input at " + config);
+            parserConfigsAtEndOfInput.putIfAbsent(config, framesPushedOnThisToken);
+            if (walkListener != null) {
+                walkListener.endOfInputReached(parserState);
             }
-            for (Transition trans : parserState.getTransitions()) {
-                if (trans.isEpsilon()) {
-                    handleEpsilonTransition(trans, tokenListIndex);
-                } else if (trans instanceof AtomTransition) {
-                    handleAtomicTransition((AtomTransition) trans, tokenListIndex);
-                } else {
-                    handleSetTransition((SetTransition)trans, tokenListIndex);
+            return;
+        }
+        if (isReturnToKnownCaller(parserState, stack)) {
+            logger.debug(indent + "Returning to " + parserWrapper.toString(stack.getReturnState()));
+            steps.push(new WalkStep(WalkStep.Kind.VISIT, stack.getReturnState(), stack.pop(),
+                    Math.max(0, framesPushedOnThisToken - 1), tokenListIndex));
+            return;
+        }
+        CompiledAtn atn = parserWrapper.getCompiledAtn();
+        int firstEdge = atn.firstEdge(parserState.stateNumber);
+        int endEdge = atn.endEdge(parserState.stateNumber);
+        int skippedEdge = findLoopExitTakenOnlyByOuterInvocations(atn, parserState.stateNumber, stack,
+                tokenListIndex);
+        workCounters.parserTransitionsFollowed(endEdge - firstEdge);
+        for (int edge = endEdge - 1; edge >= firstEdge; --edge) {
+            if (edge == skippedEdge) {
+                continue;
+            }
+            switch (atn.kind(edge)) {
+            case CompiledAtn.RULE:
+                handleRuleTransition(atn, edge, stack, framesPushedOnThisToken, tokenListIndex, steps);
+                break;
+            case CompiledAtn.EPSILON:
+                if (isEpsilonEdgeEnabled(atn, edge, stack, tokenListIndex)) {
+                    handleEpsilonTransition(atn, edge, stack, framesPushedOnThisToken, tokenListIndex, steps);
                 }
+                break;
+            default:
+                handleTokenTransition(atn, edge, stack, tokenListIndex, steps);
             }
-        } finally {
-            indent = indent.substring(2);
-            setParserStateLastVisitedOnThisTokenIndex(parserState, previousTokenListIndexForThisState);
         }
     }
 
-    private boolean didVisitParserStateOnThisTokenIndex(ATNState parserState, Integer currentTokenListIndex) {
-        Integer lastVisitedThisStateAtTokenListIndex = parserStateToTokenListIndexWhereLastVisited.get(parserState);
-        return currentTokenListIndex.equals(lastVisitedThisStateAtTokenListIndex);
+    private void exitParserState(WalkStep step) {
+        indent = indent.substring(2);
+        setParserConfigLastVisitedOnThisTokenIndex(new ParserConfig(step.state, step.stack),
+                step.previousTokenListIndex);
+        if (walkListener != null) {
+            walkListener.stateExited(step.state);
+        }
     }
 
-    private Integer setParserStateLastVisitedOnThisTokenIndex(ATNState parserState, Integer tokenListIndex) {
+    private boolean didVisitParserConfigOnThisTokenIndex(ParserConfig config, Integer currentTokenListIndex) {
+        Integer lastVisitedThisConfigAtTokenListIndex = parserConfigToTokenListIndexWhereLastVisited.get(config);
+        return currentTokenListIndex.equals(lastVisitedThisConfigAtTokenListIndex);
+    }
+
+    private Integer setParserConfigLastVisitedOnThisTokenIndex(ParserConfig config, Integer tokenListIndex) {
         if (tokenListIndex == null) {
-            return parserStateToTokenListIndexWhereLastVisited.remove(parserState);
+            return parserConfigToTokenListIndexWhereLastVisited.remove(config);
         } else {
-            return parserStateToTokenListIndexWhereLastVisited.put(parserState, tokenListIndex);
+            return parserConfigToTokenListIndexWhereLastVisited.put(config, tokenListIndex);
         }
     }
 
+    private boolean isRecoveryWorkExhausted() {
+        return recovering && --remainingRecoveryWork < 0;
+    }
+
     private boolean haveMoreTokens(int tokenListIndex) {
         return tokenListIndex < inputTokens.size();
     }
 
-    private void handleEpsilonTransition(Transition trans, int tokenListIndex) {
+    /**
+     * When the caller of the ending rule is known, the walk only returns there. Otherwise (the rule the walk started
+     * in), all of the rule stop state's transitions are followed.
+     */
+    private boolean isReturnToKnownCaller(ATNState parserState, ParserStack stack) {
+        return !stack.isEmpty() && parserWrapper.getCompiledAtn().isRuleStop(parserState.stateNumber);
+    }
+
+    /**
+     * A rule invoked again with the same return state before any token is consumed is left recursion, and would grow
+     * the stack forever.
+     */
+    private static boolean isRecursionWithoutConsumption(ATNState followState, ParserStack stack,
+            int framesPushedOnThisToken) {
+        return stack.hasReturnStateInTopFrames(followState, framesPushedOnThisToken);
+    }
+
+    /**
+     * A precedence predicate holds when its precedence is at least the one the current rule was invoked with, read
+     * from the invocation's follow state on top of the stack. When the caller is unknown, the invocation precedence
+     * is taken as 0, so all of them hold. Semantic predicates are left to the evaluator, once per predicate, stack
+     * and token index.
+     */
+    private boolean isEpsilonEdgeEnabled(CompiledAtn atn, int edge, ParserStack stack, int tokenListIndex) {
+        if (atn.isUnconditional(edge)) {
+            return true;
+        }
+        if (atn.isPrecedencePredicate(edge)) {
+            int invocationPrecedence = stack.isEmpty() ? 0
+                    : atn.invocationPrecedence(stack.getReturnState().stateNumber);
+            return atn.precedence(edge) >= invocationPrecedence;
+        }
+        if (predicateEvaluator == PredicateEvaluator.ALL_TRUE) {
+            return true;
+        }
+        PredicateTransition predicate = atn.getPredicate(edge);
+        return predicateResults.computeIfAbsent(
+                new PredicateCall(predicate.ruleIndex, predicate.predIndex, stack, tokenListIndex),
+                call -> predicateEvaluator.evaluate(predicate.ruleIndex, predicate.predIndex,
+                        stack.getInvokingRuleIndices(), tokenListIndex));
+    }
+
+    private static final class PredicateCall {
+        final int ruleIndex;
+        final int predicateIndex;
+        final ParserStack stack;
+        final int tokenListIndex;
+
+        PredicateCall(int ruleIndex, int predicateIndex, ParserStack stack, int tokenListIndex) {
+            this.ruleIndex = ruleIndex;
+            this.predicateIndex = predicateIndex;
+            this.stack = stack;
+            this.tokenListIndex = tokenListIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((31 * ruleIndex + predicateIndex) * 31 + tokenListIndex) * 31 + System.identityHashCode(stack);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PredicateCall)) {
+                return false;
+            }
+            PredicateCall other = (PredicateCall) obj;
+            return ruleIndex == other.ruleIndex && predicateIndex == other.predicateIndex
+                    && tokenListIndex == other.tokenListIndex && stack == other.stack; // Stacks are shared
+        }
+    }
+
+    /**
+     * After the right operand of a left-recursive rule, an operator allowed by the precedence predicates can be
+     * consumed either by continuing the operand's operator loop, or by returning to the loop of the invocation the
+     * operand belongs to. Like ANTLR's parsers, which resolve this ambiguity in favor of the inner loop, the walk does
+     * not leave the loop when the next token continues it: whatever the outer loop accepts after the operator, the
+     * inner one accepts too, after returning. Otherwise both paths would be explored at every operator, doubling the
+     * work each time.
+     *
+     * Only operands are invoked with a precedence, and they end their alternative, so returning leads to the outer
+     * loop. Other callers, including other rules, may accept the operator token differently, so the exit is followed
+     * for them.
+     *
+     * @return the loop's exit edge if it need not be followed, else -1
+     */
+    private int findLoopExitTakenOnlyByOuterInvocations(CompiledAtn atn, int stateNumber, ParserStack stack,
+            int tokenListIndex) {
+        int exitEdge = atn.precedenceLoopExitEdge(stateNumber);
+        if (exitEdge < 0 || recovering || stack.isEmpty()
+                || atn.invocationPrecedence(stack.getReturnState().stateNumber) == 0) {
+            return -1;
+        }
+        int nextTokenType = inputTokens.get(tokenListIndex).getType();
+        BitSet visitedStates = new BitSet();
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int edge = atn.firstEdge(stateNumber); edge < atn.endEdge(stateNumber); ++edge) {
+            if (edge != exitEdge) {
+                pending.push(atn.target(edge));
+            }
+        }
+        while (!pending.isEmpty()) {
+            int s = pending.pop();
+            if (visitedStates.get(s)) {
+                continue;
+            }
+            visitedStates.set(s);
+            for (int edge = atn.firstEdge(s); edge < atn.endEdge(s); ++edge) {
+                byte kind = atn.kind(edge);
+                if (kind == CompiledAtn.EPSILON) {
+                    if (isEpsilonEdgeEnabled(atn, edge, stack, tokenListIndex)) {
+                        pending.push(atn.target(edge));
+                    }
+                } else if (kind == CompiledAtn.RULE) {
+                    return -1; // The operator is not a token, don't look further
+                } else if (kind == CompiledAtn.WILDCARD || atn.matches(edge, nextTokenType)) {
+                    return exitEdge;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void handleRuleTransition(CompiledAtn atn, int edge, ParserStack stack, int framesPushedOnThisToken,
+            int tokenListIndex, Deque<WalkStep> steps) {
+        ATNState followState = atn.getState(atn.label(edge));
+        if (isRecursionWithoutConsumption(followState, stack, framesPushedOnThisToken)) {
+            logger.debug(indent + "Not following recursive rule invocation: "
+                    + parserWrapper.toString(atn.getTransition(edge)));
+            return;
+        }
+        steps.push(new WalkStep(WalkStep.Kind.VISIT, atn.getState(atn.target(edge)), stack.push(followState),
+                framesPushedOnThisToken + 1, tokenListIndex));
+    }
+
+    private static void handleEpsilonTransition(CompiledAtn atn, int edge, ParserStack stack,
+            int framesPushedOnThisToken, int tokenListIndex, Deque<WalkStep> steps) {
         // Epsilon transitions don't consume a token, so don't move the index
-        parseAndCollectTokenSuggestions(trans.target, tokenListIndex);
+        steps.push(new WalkStep(WalkStep.Kind.VISIT, atn.getState(atn.target(edge)), stack, framesPushedOnThisToken,
+                tokenListIndex));
     }
 
-    private void handleAtomicTransition(AtomTransition trans, int tokenListIndex) {
+    private void handleTokenTransition(CompiledAtn atn, int edge, ParserStack stack, int tokenListIndex,
+            Deque<WalkStep> steps) {
         Token nextToken = inputTokens.get(tokenListIndex);
-        int nextTokenType = inputTokens.get(tokenListIndex).getType();
-        boolean nextTokenMatchesTransition = (trans.label == nextTokenType);
+        boolean nextTokenMatchesTransition = atn.kind(edge) == CompiledAtn.WILDCARD
+                || atn.matches(edge, nextToken.getType());
+        ATNState target = atn.getState(atn.target(edge));
         if (nextTokenMatchesTransition) {
-            logger.debug(indent + "Token " + nextToken + " following transition: " + parserWrapper.toString(trans));
-            parseAndCollectTokenSuggestions(trans.target, tokenListIndex + 1);
+            if (logger.isDebugEnabled()) {
+                logger.debug(indent + "Token " + nextToken + " following transition: "
+                        + parserWrapper.toString(atn.getTransition(edge)));
+            }
+            steps.push(new WalkStep(WalkStep.Kind.ENTER_TOKEN_INDEX, target, stack, 0, tokenListIndex + 1));
         } else {
-            logger.debug(indent + "Token " + nextToken + " NOT following transition: " + parserWrapper.toString(trans));
+            if (logger.isDebugEnabled()) {
+                logger.debug(indent + "Token " + nextToken + " NOT following transition: "
+                        + parserWrapper.toString(atn.getTransition(edge)));
+            }
+            steps.push(new WalkStep(WalkStep.Kind.INSERT_TOKEN, target, stack, 0, tokenListIndex));
         }
     }
 
-    private void handleSetTransition(SetTransition trans, int tokenListIndex) {
-        Token nextToken = inputTokens.get(tokenListIndex);
-        int nextTokenType = nextToken.getType();
-        for (int transitionTokenType : trans.label().toList()) {
-            boolean nextTokenMatchesTransition = (transitionTokenType == nextTokenType);
-            if (nextTokenMatchesTransition) {
-                logger.debug(indent + "Token " + nextToken + " following transition: " + parserWrapper.toString(trans) + " to " + transitionTokenType);
-                parseAndCollectTokenSuggestions(trans.target, tokenListIndex + 1);
-            } else {
-                logger.debug(indent + "Token " + nextToken + " NOT following transition: " + parserWrapper.toString(trans) + " to " + transitionTokenType);
-            }
+    /**
+     * During error recovery, pretends a token accepted by the transition was missing from the input.
+     */
+    private void insertTokenIfRecovering(WalkStep step, Deque<WalkStep> steps) {
+        if (remainingRecoveryEdits == 0) {
+            return;
         }
+        logger.debug(indent + "Recovery: inserting token before state " + parserWrapper.toString(step.state));
+        --remainingRecoveryEdits;
+        steps.push(new WalkStep(WalkStep.Kind.RESTORE_EDIT, null, null, 0, 0));
+        steps.push(new WalkStep(WalkStep.Kind.ENTER_TOKEN_INDEX, step.state, step.stack, 0, step.tokenListIndex));
     }
 
-    private void suggestNextTokensForParserState(ATNState parserState) {
-        Set<Integer> transitionLabels = new HashSet<>();
-        fillParserTransitionLabels(parserState, transitionLabels, new HashSet<>());
-        TokenSuggester tokenSuggester = new TokenSuggester(this.untokenizedText, lexerWrapper, this.casePreference);
-        Collection<String> suggestions = tokenSuggester.suggest(transitionLabels);
-        parseSuggestionsAndAddValidOnes(parserState, suggestions);
-        logger.debug(indent + "WILL SUGGEST TOKENS FOR STATE: " + parserState);
+    /**
+     * Suggests the tokens expected by any of the configurations reached at the end of the input. The expected token
+     * types of all configurations are united first, so the lexer ATN is enumerated once per distinct token type, and
+     * each candidate text is lexed and checked once, however many parse paths reached the end of the input.
+     */
+    private void suggestNextTokensForEndConfigs() {
+        Set<Integer> expectedTokenTypes = new HashSet<>();
+        for (Map.Entry<ParserConfig, Integer> configAndFrames : parserConfigsAtEndOfInput.entrySet()) {
+            fillParserTransitionLabels(configAndFrames.getKey(), configAndFrames.getValue(), expectedTokenTypes,
+                    new HashSet<>());
+        }
+        TokenSuggester tokenSuggester = new TokenSuggester(this.untokenizedText, lexerWrapper, this.casePreference,
+                this.lexerModeAtEndOfInput, workCounters);
+        Collection<String> suggestions;
+        SuggestionTracer.Span span = tracer.phaseStarted(SuggestionTracer.Phase.LEXER_ENUMERATION);
+        try {
+            suggestions = tokenSuggester.suggest(expectedTokenTypes);
+        } finally {
+            span.finish();
+        }
+        span = tracer.phaseStarted(SuggestionTracer.Phase.VALIDATION);
+        try {
+            Map<String, Integer> tokenTypesOfValidSuggestions = addValidSuggestions(suggestions, expectedTokenTypes);
+            if (maxPhraseLength > 1) {
+                for (Map.Entry<ParserConfig, Integer> configAndFrames : parserConfigsAtEndOfInput.entrySet()) {
+                    collectPhraseSuggestions(configAndFrames.getKey(), configAndFrames.getValue(),
+                            tokenTypesOfValidSuggestions);
+                }
+            }
+        } finally {
+            span.finish();
+        }
     }
 
-    private void fillParserTransitionLabels(ATNState parserState, Collection<Integer> result, Set<TransitionWrapper> visitedTransitions) {
-        for (Transition trans : parserState.getTransitions()) {
-            TransitionWrapper transWrapper = new TransitionWrapper(parserState, trans);
-            if (visitedTransitions.contains(transWrapper)) {
-                logger.debug(indent + "Not following visited " + transWrapper);
-                continue;
+    /**
+     * Extends each valid suggestion with the tokens that must follow it, as precomputed per parser state, as long as
+     * they are keywords with a single spelling.
+     */
+    private void collectPhraseSuggestions(ParserConfig config, int framesPushedOnThisToken,
+            Map<String, Integer> tokenTypesOfValidSuggestions) {
+        Map<Integer, int[]> continuationsByTokenType = new HashMap<>();
+        CompiledAtn atn = parserWrapper.getCompiledAtn();
+        collectExpectedTokens(config, framesPushedOnThisToken, (tokenType, state, stack) -> {
+            for (int edge = atn.firstEdge(state.stateNumber); edge < atn.endEdge(state.stateNumber); ++edge) {
+                byte kind = atn.kind(edge);
+                if ((kind == CompiledAtn.ATOM || kind == CompiledAtn.SET) && atn.matches(edge, tokenType)) {
+                    int[] continuation = parserWrapper.getDeterministicContinuation(atn.target(edge));
+                    continuationsByTokenType.merge(tokenType, continuation,
+                            (a, b) -> Arrays.equals(a, b) ? a : new int[0]); // Ambiguous
+                }
             }
-            if (trans.isEpsilon()) {
-                try {
-                    visitedTransitions.add(transWrapper);
-                    fillParserTransitionLabels(trans.target, result, visitedTransitions);
-                } finally {
-                    visitedTransitions.remove(transWrapper);
+        }, new HashSet<>());
+        KeywordIndex keywordIndex = lexerWrapper.getKeywordIndex(lexerModeAtEndOfInput, casePreference);
+        for (Map.Entry<String, Integer> suggestionAndTokenType : tokenTypesOfValidSuggestions.entrySet()) {
+            int[] continuation = continuationsByTokenType.getOrDefault(suggestionAndTokenType.getValue(), new int[0]);
+            StringBuilder phrase = new StringBuilder(suggestionAndTokenType.getKey());
+            List<Integer> phraseTokenTypes = new ArrayList<>();
+            phraseTokenTypes.add(suggestionAndTokenType.getValue());
+            for (int i = 0; i < continuation.length && phraseTokenTypes.size() < maxPhraseLength; ++i) {
+                String text = keywordIndex.getOnlyText(continuation[i]);
+                if (text == null) {
+                    break;
                 }
-            } else if (trans instanceof AtomTransition) {
-                int label = ((AtomTransition) trans).label;
-                if (label >= 1) { // EOF would be -1
-                    result.add(label);
+                phrase.append(' ').append(text);
+                phraseTokenTypes.add(continuation[i]);
+            }
+            if (phraseTokenTypes.size() > 1 && endsWithTokenTypes(this.input + phrase, phraseTokenTypes)) {
+                collectedSuggestions.add(phrase.toString());
+                tokenTypesOfSuggestions.putIfAbsent(phrase.toString(), suggestionAndTokenType.getValue());
+            }
+        }
+    }
+
+    private boolean endsWithTokenTypes(String text, List<Integer> tokenTypes) {
+        TokenizationResult tokenizationResult = lexerWrapper.tokenizeNonDefaultChannel(text);
+        workCounters.tokenized();
+        List<? extends Token> tokens = tokenizationResult.tokens;
+        if (!tokenizationResult.untokenizedText.isEmpty() || tokens.size() < tokenTypes.size()) {
+            return false;
+        }
+        List<? extends Token> lastTokens = tokens.subList(tokens.size() - tokenTypes.size(), tokens.size());
+        return lastTokens.stream().map(Token::getType).collect(Collectors.toList()).equals(tokenTypes);
+    }
+
+    private void fillParserTransitionLabels(ParserConfig config, int framesPushedOnThisToken,
+            Collection<Integer> result, Set<ParserConfig> visitedConfigs) {
+        collectExpectedTokens(config, framesPushedOnThisToken, (tokenType, state, stack) -> result.add(tokenType),
+                visitedConfigs);
+    }
+
+    /**
+     * Receives each token type that can come next, with the parser state expecting it and its invocation stack.
+     */
+    private interface ExpectedTokenCollector {
+        void collect(int tokenType, ATNState parserState, ParserStack stack);
+    }
+
+    /**
+     * A step of the walks from an end of input configuration, kept on an explicit stack like {@link WalkStep}. The
+     * exit step of a configuration removes it from the configurations being visited.
+     */
+    private static final class ConfigStep {
+        final ParserConfig config;
+        final int framesPushedOnThisToken;
+        final boolean exit;
+
+        ConfigStep(ParserConfig config, int framesPushedOnThisToken, boolean exit) {
+            this.config = config;
+            this.framesPushedOnThisToken = framesPushedOnThisToken;
+            this.exit = exit;
+        }
+    }
+
+    /**
+     * Pushes the steps following the configuration's epsilon and rule transitions, in reverse order. Semantic
+     * predicates are evaluated at the given token index, the number of tokens consumed before the configuration.
+     */
+    private void pushEpsilonSteps(ConfigStep step, int tokenListIndex, Deque<ConfigStep> steps) {
+        ATNState parserState = step.config.getState();
+        ParserStack stack = step.config.getStack();
+        if (isReturnToKnownCaller(parserState, stack)) {
+            steps.push(new ConfigStep(new ParserConfig(stack.getReturnState(), stack.pop()),
+                    Math.max(0, step.framesPushedOnThisToken - 1), false));
+            return;
+        }
+        CompiledAtn atn = parserWrapper.getCompiledAtn();
+        for (int edge = atn.endEdge(parserState.stateNumber) - 1; edge >= atn.firstEdge(parserState.stateNumber);
+                --edge) {
+            byte kind = atn.kind(edge);
+            if (kind == CompiledAtn.RULE) {
+                ATNState followState = atn.getState(atn.label(edge));
+                if (!isRecursionWithoutConsumption(followState, stack, step.framesPushedOnThisToken)) {
+                    steps.push(new ConfigStep(new ParserConfig(atn.getState(atn.target(edge)), stack.push(followState)),
+                            step.framesPushedOnThisToken + 1, false));
                 }
-            } else if (trans instanceof SetTransition) {
-                for (Interval interval : ((SetTransition) trans).label().getIntervals()) {
-                    for (int i = interval.a; i <= interval.b; ++i) {
-                        result.add(i);
+            } else if (kind == CompiledAtn.EPSILON && isEpsilonEdgeEnabled(atn, edge, stack, tokenListIndex)) {
+                steps.push(new ConfigStep(new ParserConfig(atn.getState(atn.target(edge)), stack),
+                        step.framesPushedOnThisToken, false));
+            }
+        }
+    }
+
+    private void collectExpectedTokens(ParserConfig config, int framesPushedOnThisToken,
+            ExpectedTokenCollector collector, Set<ParserConfig> visitedConfigs) {
+        Deque<ConfigStep> steps = new ArrayDeque<>();
+        steps.push(new ConfigStep(config, framesPushedOnThisToken, false));
+        while (!steps.isEmpty()) {
+            ConfigStep step = steps.pop();
+            if (step.exit) {
+                visitedConfigs.remove(step.config);
+                continue;
+            }
+            if (visitedConfigs.contains(step.config)) {
+                logger.debug(indent + "Not following visited " + step.config);
+                continue;
+            }
+            visitedConfigs.add(step.config);
+            workCounters.parserStateEntered();
+            steps.push(new ConfigStep(step.config, step.framesPushedOnThisToken, true));
+            ATNState parserState = step.config.getState();
+            ParserStack stack = step.config.getStack();
+            if (!isReturnToKnownCaller(parserState, stack)) {
+                CompiledAtn atn = parserWrapper.getCompiledAtn();
+                int firstEdge = atn.firstEdge(parserState.stateNumber);
+                int endEdge = atn.endEdge(parserState.stateNumber);
+                workCounters.parserTransitionsFollowed(endEdge - firstEdge);
+                for (int edge = firstEdge; edge < endEdge; ++edge) {
+                    byte kind = atn.kind(edge);
+                    if (kind == CompiledAtn.ATOM) {
+                        int label = atn.label(edge);
+                        if (label >= 1) { // EOF would be -1
+                            collector.collect(label, parserState, stack);
+                        }
+                    } else if (kind == CompiledAtn.SET) {
+                        for (Interval interval : atn.getSet(atn.label(edge)).getIntervals()) {
+                            for (int i = interval.a; i <= interval.b; ++i) {
+                                collector.collect(i, parserState, stack);
+                            }
+                        }
                     }
                 }
             }
+            pushEpsilonSteps(step, inputTokens.size(), steps);
         }
     }
 
-    private void parseSuggestionsAndAddValidOnes(ATNState parserState, Collection<String> suggestions) {
+    /**
+     * A suggestion is valid if the input with it appended lexes into the input's tokens followed by one more token,
+     * of a type the parser expects.
+     *
+     * @return the valid suggestions, with the type of the token each completes
+     */
+    private Map<String, Integer> addValidSuggestions(Collection<String> suggestions, Set<Integer> expectedTokenTypes) {
+        Map<String, Integer> result = new LinkedHashMap<>();
         for (String suggestion : suggestions) {
             logger.debug("CHECKING suggestion: " + suggestion);
             Token addedToken = getAddedToken(suggestion);
-            if (isParseableWithAddedToken(parserState, addedToken, new HashSet<TransitionWrapper>())) {
+            if (addedToken != null && expectedTokenTypes.contains(addedToken.getType())) {
                 collectedSuggestions.add(suggestion);
+                tokenTypesOfSuggestions.putIfAbsent(suggestion, addedToken.getType());
+                result.put(suggestion, addedToken.getType());
             } else {
                 logger.debug("DROPPING non-parseable suggestion: " + suggestion);
             }
         }
+        return result;
     }
 
     private Token getAddedToken(String suggestedCompletion) {
         String completedText = this.input + suggestedCompletion;
         List<? extends Token> completedTextTokens = this.lexerWrapper.tokenizeNonDefaultChannel(completedText).tokens;
+        workCounters.tokenized();
         if (completedTextTokens.size() <= inputTokens.size()) {
             return null; // Completion didn't yield whole token, could be just a token fragment
         }
@@ -215,44 +1126,4 @@ public class AutoSuggester {
         Token newToken = completedTextTokens.get(completedTextTokens.size() - 1);
         return newToken;
     }
-
-    private boolean isParseableWithAddedToken(ATNState parserState, Token newToken, Set<TransitionWrapper> visitedTransitions) {
-        if (newToken == null) {
-            return false;
-        }
-        for (Transition parserTransition : parserState.getTransitions()) {
-            if (parserTransition.isEpsilon()) { // Recurse through any epsilon transitionsStr
-                TransitionWrapper transWrapper = new TransitionWrapper(parserState, parserTransition);
-                if (visitedTransitions.contains(transWrapper)) {
-                    continue;
-                }
-                visitedTransitions.add(transWrapper);
-                try {
-                    if (isParseableWithAddedToken(parserTransition.target, newToken, visitedTransitions)) {
-                        return true;
-                    }
-                } finally {
-                    visitedTransitions.remove(transWrapper);
-                }
-            } else if (parserTransition instanceof AtomTransition) {
-                AtomTransition parserAtomTransition = (AtomTransition) parserTransition;
-                int transitionTokenType = parserAtomTransition.label;
-                if (transitionTokenType == newToken.getType()) {
-                    return true;
-                }
-            } else if (parserTransition instanceof SetTransition) {
-                SetTransition parserSetTransition = (SetTransition) parserTransition;
-                for (int transitionTokenType : parserSetTransition.label().toList()) {
-                    if (transitionTokenType == newToken.getType()) {
-                        return true;
-                    }
-                }
-            } else {
-                throw new IllegalStateException("Unexpected: " + parserWrapper.toString(parserTransition));
-            }
-        }
-        return false;
-    }
-
-
 }
@@ -0,0 +1,131 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.WildcardTransition;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.IntervalSet;
+
+/**
+ * The characters matched by a lexer set, range, negated set or wildcard transition, kept as sorted intervals of code
+ * points. Classes can hold about a million code points (e.g. ~[\r\n]), so they are never expanded to a list: matching
+ * is a binary search over the intervals, and suggestions only enumerate a bounded number of code points.
+ */
+class CharacterClass {
+    /**
+     * Classes up to this size are fully enumerated when suggesting. Larger ones only contribute one representative
+     * code point per interval, up to the same number of code points.
+     */
+    static final int MAX_ENUMERATED_CODE_POINTS = 256;
+
+    private final int[] intervalStarts;
+    private final int[] intervalEnds;
+    private final long size;
+    private final int[][] suggestedCodePointsByCasePreference = new int[CasePreference.values().length][];
+
+    private CharacterClass(IntervalSet set) {
+        List<Interval> intervals = set.getIntervals();
+        this.intervalStarts = new int[intervals.size()];
+        this.intervalEnds = new int[intervals.size()];
+        long totalSize = 0;
+        for (int i = 0; i < intervals.size(); ++i) {
+            intervalStarts[i] = intervals.get(i).a;
+            intervalEnds[i] = intervals.get(i).b;
+            totalSize += intervalEnds[i] - intervalStarts[i] + 1;
+        }
+        this.size = totalSize;
+        for (CasePreference casePreference : CasePreference.values()) {
+            suggestedCodePointsByCasePreference[casePreference.ordinal()] = computeSuggestedCodePoints(casePreference);
+        }
+    }
+
+    public static CharacterClass of(Transition lexerTransition) {
+        IntervalSet set;
+        if (lexerTransition instanceof NotSetTransition) { // label() is the set being negated
+            set = lexerTransition.label().complement(Lexer.MIN_CHAR_VALUE, Lexer.MAX_CHAR_VALUE);
+        } else if (lexerTransition instanceof WildcardTransition) {
+            set = IntervalSet.of(Lexer.MIN_CHAR_VALUE, Lexer.MAX_CHAR_VALUE);
+        } else {
+            set = lexerTransition.label();
+        }
+        return new CharacterClass((set == null) ? new IntervalSet() : set);
+    }
+
+    public boolean contains(int codePoint) {
+        int index = Arrays.binarySearch(intervalStarts, codePoint);
+        if (index >= 0) {
+            return true;
+        }
+        int containingIntervalIndex = -index - 2; // The last interval starting before the code point
+        return containingIntervalIndex >= 0 && codePoint <= intervalEnds[containingIntervalIndex];
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * When both cases of a letter are in the class, the case preference decides which of them is suggested.
+     */
+    public boolean isIgnoredCase(int codePoint, CasePreference casePreference) {
+        if (casePreference == null) {
+            return false;
+        }
+        switch (casePreference) {
+        case LOWER:
+            return Character.isUpperCase(codePoint) && contains(Character.toLowerCase(codePoint));
+        case UPPER:
+            return Character.isLowerCase(codePoint) && contains(Character.toUpperCase(codePoint));
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * The code points to try when the class is the next character of a suggestion, filtered by case preference.
+     */
+    public int[] getSuggestedCodePoints(CasePreference casePreference) {
+        CasePreference effectivePreference = (casePreference == null) ? CasePreference.BOTH : casePreference;
+        return suggestedCodePointsByCasePreference[effectivePreference.ordinal()];
+    }
+
+    public long estimateRetainedBytes() {
+        long result = 64 + 8L * intervalStarts.length;
+        for (int[] codePoints : suggestedCodePointsByCasePreference) {
+            result += 16 + 4L * codePoints.length;
+        }
+        return result;
+    }
+
+    private int[] computeSuggestedCodePoints(CasePreference casePreference) {
+        boolean enumerateAll = size <= MAX_ENUMERATED_CODE_POINTS;
+        int[] result = new int[MAX_ENUMERATED_CODE_POINTS];
+        int count = 0;
+        for (int i = 0; i < intervalStarts.length && count < result.length; ++i) {
+            int first = enumerateAll ? intervalStarts[i] : firstNonControlCodePoint(intervalStarts[i], intervalEnds[i]);
+            int last = enumerateAll ? intervalEnds[i] : first;
+            for (int codePoint = first; codePoint >= 0 && codePoint <= last; ++codePoint) {
+                if (!isIgnoredCase(codePoint, casePreference)) {
+                    result[count++] = codePoint;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Control characters make poor representatives of a large class, so the first other code point is used.
+     */
+    private static int firstNonControlCodePoint(int start, int end) {
+        for (int codePoint = start; codePoint <= end; ++codePoint) {
+            if (!Character.isISOControl(codePoint)) {
+                return codePoint;
+            }
+        }
+        return -1;
+    }
+}
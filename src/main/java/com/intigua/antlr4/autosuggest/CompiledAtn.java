@@ -0,0 +1,318 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.ATNType;
+import org.antlr.v4.runtime.atn.AtomTransition;
+import org.antlr.v4.runtime.atn.LoopEndState;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.atn.PrecedencePredicateTransition;
+import org.antlr.v4.runtime.atn.PredicateTransition;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.StarLoopEntryState;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.WildcardTransition;
+import org.antlr.v4.runtime.misc.IntervalSet;
+
+/**
+ * An ATN flattened into parallel arrays, so walks read edges from a few int arrays instead of following transition
+ * objects and testing their classes. The edges of state s are {@code firstEdge(s)} up to {@code firstEdge(s + 1)},
+ * each with a kind, a target state number and a label:
+ * <ul>
+ * <li>{@link #ATOM}: the label is the token type or character.</li>
+ * <li>{@link #SET}: the label indexes the interned {@link #getSet(int) sets}. Includes ranges, and negated sets as
+ * their complement over the token types, or the characters for a lexer ATN.</li>
+ * <li>{@link #RULE}: the label is the follow state number.</li>
+ * <li>{@link #EPSILON}: plain epsilon, action and predicate transitions. The label is 0 for unconditional edges, the
+ * precedence + 1 for {@link #isPrecedencePredicate(int) precedence predicates}, and negative for
+ * {@link #isSemanticPredicate(int) semantic predicates}; walks that do not evaluate predicates ignore it.</li>
+ * <li>{@link #WILDCARD}: any token or character.</li>
+ * </ul>
+ */
+final class CompiledAtn {
+    static final byte EPSILON = 0;
+    static final byte RULE = 1;
+    static final byte ATOM = 2;
+    static final byte SET = 3;
+    static final byte WILDCARD = 4;
+    private static final int UNCONDITIONAL = 0;
+    private static final int SEMANTIC_PREDICATE = -1;
+
+    private final ATN atn;
+    private final int[] firstEdge;
+    private final byte[] edgeKind;
+    private final int[] edgeTarget;
+    private final int[] edgeLabel;
+    private final boolean[] ruleStop;
+    private final int[] invocationPrecedence;
+    private final int[] precedenceLoopExitEdge;
+    private final Transition[] transitions;
+    private final IntervalSet[] sets;
+
+    CompiledAtn(ATN atn) {
+        this.atn = atn;
+        int stateCount = atn.states.size();
+        int edgeCount = 0;
+        for (ATNState state : atn.states) {
+            edgeCount += (state == null) ? 0 : state.getNumberOfTransitions();
+        }
+        this.firstEdge = new int[stateCount + 1];
+        this.edgeKind = new byte[edgeCount];
+        this.edgeTarget = new int[edgeCount];
+        this.edgeLabel = new int[edgeCount];
+        this.ruleStop = new boolean[stateCount];
+        this.invocationPrecedence = new int[stateCount];
+        this.precedenceLoopExitEdge = new int[stateCount];
+        Arrays.fill(precedenceLoopExitEdge, -1);
+        this.transitions = new Transition[edgeCount];
+        Map<IntervalSet, Integer> setIndices = new HashMap<>();
+        List<IntervalSet> internedSets = new ArrayList<>();
+        int edge = 0;
+        for (int s = 0; s < stateCount; ++s) {
+            firstEdge[s] = edge;
+            ATNState state = atn.states.get(s);
+            if (state == null) {
+                continue;
+            }
+            ruleStop[s] = state instanceof RuleStopState;
+            boolean precedenceDecision = state instanceof StarLoopEntryState
+                    && ((StarLoopEntryState) state).isPrecedenceDecision;
+            for (Transition trans : state.getTransitions()) {
+                transitions[edge] = trans;
+                if (precedenceDecision && trans.target instanceof LoopEndState) {
+                    precedenceLoopExitEdge[s] = edge;
+                }
+                edgeTarget[edge] = trans.target.stateNumber;
+                if (trans instanceof RuleTransition) {
+                    RuleTransition ruleTransition = (RuleTransition) trans;
+                    edgeKind[edge] = RULE;
+                    edgeLabel[edge] = ruleTransition.followState.stateNumber;
+                    invocationPrecedence[ruleTransition.followState.stateNumber] = ruleTransition.precedence;
+                } else if (trans.isEpsilon()) {
+                    edgeKind[edge] = EPSILON;
+                    if (trans instanceof PrecedencePredicateTransition) {
+                        edgeLabel[edge] = ((PrecedencePredicateTransition) trans).precedence + 1;
+                    } else if (trans instanceof PredicateTransition) {
+                        edgeLabel[edge] = SEMANTIC_PREDICATE;
+                    } else {
+                        edgeLabel[edge] = UNCONDITIONAL;
+                    }
+                } else if (trans instanceof AtomTransition) {
+                    edgeKind[edge] = ATOM;
+                    edgeLabel[edge] = ((AtomTransition) trans).label;
+                } else if (trans instanceof WildcardTransition) {
+                    edgeKind[edge] = WILDCARD;
+                } else { // Set, negated set or range
+                    edgeKind[edge] = SET;
+                    IntervalSet set = (trans instanceof NotSetTransition) ? complement(atn, trans.label())
+                            : trans.label();
+                    edgeLabel[edge] = setIndices.computeIfAbsent(set, key -> {
+                        internedSets.add(key);
+                        return internedSets.size() - 1;
+                    });
+                }
+                ++edge;
+            }
+        }
+        firstEdge[stateCount] = edge;
+        this.sets = internedSets.toArray(new IntervalSet[0]);
+    }
+
+    /**
+     * The symbols a negated set matches: like the ATN simulators, token types from 1 up to the ATN's maximum, or all
+     * characters.
+     */
+    private static IntervalSet complement(ATN atn, IntervalSet negatedSet) {
+        if (atn.grammarType == ATNType.LEXER) {
+            return negatedSet.complement(Lexer.MIN_CHAR_VALUE, Lexer.MAX_CHAR_VALUE);
+        }
+        return negatedSet.complement(Token.MIN_USER_TOKEN_TYPE, atn.maxTokenType);
+    }
+
+    private CompiledAtn(ATN atn, int[] firstEdge, byte[] edgeKind, int[] edgeTarget, int[] edgeLabel,
+            boolean[] ruleStop, int[] invocationPrecedence, int[] precedenceLoopExitEdge, Transition[] transitions,
+            IntervalSet[] sets) {
+        this.atn = atn;
+        this.firstEdge = firstEdge;
+        this.edgeKind = edgeKind;
+        this.edgeTarget = edgeTarget;
+        this.edgeLabel = edgeLabel;
+        this.ruleStop = ruleStop;
+        this.invocationPrecedence = invocationPrecedence;
+        this.precedenceLoopExitEdge = precedenceLoopExitEdge;
+        this.transitions = transitions;
+        this.sets = sets;
+    }
+
+    /**
+     * A copy with only the edges accepted by the filter, where a {@link #SET} edge for which {@code narrowedSet}
+     * returns a set matches that set instead.
+     */
+    CompiledAtn withEdges(IntPredicate filter, IntFunction<IntervalSet> narrowedSet) {
+        int stateCount = ruleStop.length;
+        int keptCount = 0;
+        for (int edge = 0; edge < edgeKind.length; ++edge) {
+            keptCount += filter.test(edge) ? 1 : 0;
+        }
+        int[] newFirstEdge = new int[stateCount + 1];
+        int[] newPrecedenceLoopExitEdge = new int[stateCount];
+        Arrays.fill(newPrecedenceLoopExitEdge, -1);
+        byte[] newKind = new byte[keptCount];
+        int[] newTarget = new int[keptCount];
+        int[] newLabel = new int[keptCount];
+        Transition[] newTransitions = new Transition[keptCount];
+        List<IntervalSet> newSets = new ArrayList<>(Arrays.asList(sets));
+        Map<IntervalSet, Integer> setIndices = new HashMap<>();
+        for (int i = 0; i < sets.length; ++i) {
+            setIndices.put(sets[i], i);
+        }
+        int kept = 0;
+        for (int s = 0; s < stateCount; ++s) {
+            newFirstEdge[s] = kept;
+            for (int edge = firstEdge[s]; edge < firstEdge[s + 1]; ++edge) {
+                if (!filter.test(edge)) {
+                    continue;
+                }
+                if (precedenceLoopExitEdge[s] == edge) {
+                    newPrecedenceLoopExitEdge[s] = kept;
+                }
+                newKind[kept] = edgeKind[edge];
+                newTarget[kept] = edgeTarget[edge];
+                newLabel[kept] = edgeLabel[edge];
+                newTransitions[kept] = transitions[edge];
+                IntervalSet narrowed = (edgeKind[edge] == SET) ? narrowedSet.apply(edge) : null;
+                if (narrowed != null) {
+                    newLabel[kept] = setIndices.computeIfAbsent(narrowed, set -> {
+                        newSets.add(set);
+                        return newSets.size() - 1;
+                    });
+                }
+                ++kept;
+            }
+        }
+        newFirstEdge[stateCount] = kept;
+        return new CompiledAtn(atn, newFirstEdge, newKind, newTarget, newLabel, ruleStop, invocationPrecedence,
+                newPrecedenceLoopExitEdge, newTransitions, newSets.toArray(new IntervalSet[0]));
+    }
+
+    ATNState getState(int stateNumber) {
+        return atn.states.get(stateNumber);
+    }
+
+    int firstEdge(int stateNumber) {
+        return firstEdge[stateNumber];
+    }
+
+    /**
+     * One past the last edge of the state.
+     */
+    int endEdge(int stateNumber) {
+        return firstEdge[stateNumber + 1];
+    }
+
+    byte kind(int edge) {
+        return edgeKind[edge];
+    }
+
+    int target(int edge) {
+        return edgeTarget[edge];
+    }
+
+    int label(int edge) {
+        return edgeLabel[edge];
+    }
+
+    IntervalSet getSet(int setIndex) {
+        return sets[setIndex];
+    }
+
+    /**
+     * Whether an {@link #ATOM} or {@link #SET} edge matches the given token type or character.
+     */
+    boolean matches(int edge, int symbol) {
+        return (edgeKind[edge] == ATOM) ? edgeLabel[edge] == symbol : sets[edgeLabel[edge]].contains(symbol);
+    }
+
+    /**
+     * Whether an {@link #EPSILON} edge is taken without evaluating a predicate.
+     */
+    boolean isUnconditional(int edge) {
+        return edgeLabel[edge] == UNCONDITIONAL;
+    }
+
+    /**
+     * Whether an {@link #EPSILON} edge is a precedence predicate of a left-recursive rule, which holds when its
+     * {@link #precedence(int) precedence} is at least the precedence the rule was invoked with.
+     */
+    boolean isPrecedencePredicate(int edge) {
+        return edgeLabel[edge] > UNCONDITIONAL;
+    }
+
+    int precedence(int edge) {
+        return edgeLabel[edge] - 1;
+    }
+
+    /**
+     * Whether an {@link #EPSILON} edge is a semantic predicate, see {@link #getPredicate(int)}.
+     */
+    boolean isSemanticPredicate(int edge) {
+        return edgeLabel[edge] == SEMANTIC_PREDICATE;
+    }
+
+    PredicateTransition getPredicate(int edge) {
+        return (PredicateTransition) transitions[edge];
+    }
+
+    /**
+     * The precedence passed by the rule invocation returning to the given follow state, 0 for other states.
+     */
+    int invocationPrecedence(int followStateNumber) {
+        return invocationPrecedence[followStateNumber];
+    }
+
+    /**
+     * The edge leaving the operator loop of a left-recursive rule, if the state is that loop's decision, else -1.
+     */
+    int precedenceLoopExitEdge(int stateNumber) {
+        return precedenceLoopExitEdge[stateNumber];
+    }
+
+    boolean isRuleStop(int stateNumber) {
+        return ruleStop[stateNumber];
+    }
+
+    /**
+     * The transition an edge was compiled from, e.g. for logging.
+     */
+    Transition getTransition(int edge) {
+        return transitions[edge];
+    }
+
+    int getStateCount() {
+        return ruleStop.length;
+    }
+
+    int getEdgeCount() {
+        return edgeKind.length;
+    }
+
+    long estimateRetainedBytes() {
+        long result = 12L * firstEdge.length + 17L * edgeKind.length + ruleStop.length
+                + GrammarEngine.OBJECT_HEADER_BYTES * 7;
+        for (IntervalSet set : sets) {
+            result += GrammarEngine.estimateIntervalSetBytes(set.getIntervals().size());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.antlr.v4.runtime.Token;
+
+/**
+ * What the parser expects at every token boundary of an input, computed in a single pass over its tokens by
+ * {@link AutoSuggester#analyzeTokenBoundaries()}. Boundary i is the point after the first i tokens, so boundary 0 is
+ * the start of the input and boundary {@link #getTokenCount()} is its end.
+ */
+public class DocumentAnalysis {
+    private final List<? extends Token> tokens;
+    private final List<Set<Integer>> expectedTokenTypes;
+    private final List<Set<Integer>> reachableParserStates;
+
+    DocumentAnalysis(List<? extends Token> tokens, List<Set<Integer>> expectedTokenTypes,
+            List<Set<Integer>> reachableParserStates) {
+        this.tokens = tokens;
+        this.expectedTokenTypes = expectedTokenTypes;
+        this.reachableParserStates = reachableParserStates;
+    }
+
+    /**
+     * The input's tokens on the default channel.
+     */
+    public List<? extends Token> getTokens() {
+        return Collections.unmodifiableList(tokens);
+    }
+
+    public int getTokenCount() {
+        return tokens.size();
+    }
+
+    /**
+     * The number of tokens the parser accepts before the first syntax error, or all of them if there is none.
+     * Boundaries after it expect nothing.
+     */
+    public int getParsedTokenCount() {
+        return expectedTokenTypes.size() - 1;
+    }
+
+    /**
+     * The token types the parser accepts after the first tokenIndex tokens.
+     */
+    public Set<Integer> getExpectedTokenTypes(int tokenIndex) {
+        checkTokenIndex(tokenIndex);
+        return tokenIndex < expectedTokenTypes.size() ? expectedTokenTypes.get(tokenIndex) : Collections.emptySet();
+    }
+
+    /**
+     * The numbers of the parser ATN states reachable after the first tokenIndex tokens.
+     */
+    public Set<Integer> getReachableParserStates(int tokenIndex) {
+        checkTokenIndex(tokenIndex);
+        return tokenIndex < reachableParserStates.size() ? reachableParserStates.get(tokenIndex)
+                : Collections.emptySet();
+    }
+
+    private void checkTokenIndex(int tokenIndex) {
+        if (tokenIndex < 0 || tokenIndex > tokens.size()) {
+            throw new IndexOutOfBoundsException("Token boundary " + tokenIndex + " of " + tokens.size() + " tokens");
+        }
+    }
+}
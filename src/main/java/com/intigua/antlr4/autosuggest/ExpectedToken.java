@@ -0,0 +1,42 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A token type the parser accepts at the end of the input, see {@link AutoSuggester#suggestExpectedTokens()}.
+ */
+public class ExpectedToken {
+    private final int tokenType;
+    private final String displayName;
+    private final Set<String> ruleNames;
+
+    public ExpectedToken(int tokenType, String displayName, Set<String> ruleNames) {
+        this.tokenType = tokenType;
+        this.displayName = displayName;
+        this.ruleNames = Collections.unmodifiableSet(ruleNames);
+    }
+
+    public int getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * The vocabulary's display name of the token type, e.g. 'SELECT' or ID.
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * The parser rules with a transition on this token type at the end of the input, innermost rule only.
+     */
+    public Set<String> getRuleNames() {
+        return ruleNames;
+    }
+
+    @Override
+    public String toString() {
+        return displayName + " in " + ruleNames;
+    }
+}
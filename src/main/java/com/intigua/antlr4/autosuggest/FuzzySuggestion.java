@@ -0,0 +1,48 @@
+package com.intigua.antlr4.autosuggest;
+
+/**
+ * A token text suggested in place of a mistyped word, see {@link AutoSuggester#suggestFuzzyCompletions(int, int)}.
+ */
+public class FuzzySuggestion {
+    private final String text;
+    private final int tokenType;
+    private final int editDistance;
+    private final int replacedLength;
+
+    public FuzzySuggestion(String text, int tokenType, int editDistance, int replacedLength) {
+        this.text = text;
+        this.tokenType = tokenType;
+        this.editDistance = editDistance;
+        this.replacedLength = replacedLength;
+    }
+
+    /**
+     * The complete token text to use instead of the typed word.
+     */
+    public String getText() {
+        return text;
+    }
+
+    public int getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * Edits needed to turn the typed word into a prefix of the suggested text, ignoring case.
+     */
+    public int getEditDistance() {
+        return editDistance;
+    }
+
+    /**
+     * Number of characters at the end of the input that the suggested text replaces.
+     */
+    public int getReplacedLength() {
+        return replacedLength;
+    }
+
+    @Override
+    public String toString() {
+        return text + " (distance " + editDistance + ")";
+    }
+}
@@ -0,0 +1,218 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNSerializer;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.SetTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.misc.IntegerList;
+
+/**
+ * Holds everything derived from a single grammar that can be shared between suggestion requests. Building one is
+ * relatively costly, so an engine should be created once per grammar and reused, e.g. via
+ * {@link GrammarEngineRegistry}.
+ */
+public class GrammarEngine {
+    static final long OBJECT_HEADER_BYTES = 16;
+    static final long REFERENCE_BYTES = 8;
+    private static final int MAX_GENERATED_WARM_UP_INPUTS = 64;
+    private static final int SUGGESTIONS_FOLLOWED_PER_INPUT = 3;
+
+    private final LexerWrapper lexerWrapper;
+    private final ParserWrapper parserWrapper;
+    private volatile String contentHash;
+    private volatile SuggestionTracer tracer = SuggestionTracer.NONE;
+    private volatile boolean warmedUp;
+
+    public GrammarEngine(LexerAndParserFactory lexerAndParserFactory) {
+        this.lexerWrapper = new LexerWrapper(lexerAndParserFactory);
+        this.parserWrapper = new ParserWrapper(lexerAndParserFactory, lexerWrapper.getVocabulary(),
+                lexerWrapper.findProducibleTokenTypes());
+    }
+
+    LexerWrapper getLexerWrapper() {
+        return lexerWrapper;
+    }
+
+    ParserWrapper getParserWrapper() {
+        return parserWrapper;
+    }
+
+    /**
+     * Like {@link #warmUp(Collection, int)}, with inputs generated from the grammar by repeatedly appending its own
+     * suggestions to the empty input.
+     */
+    public Duration warmUp(int iterations) {
+        return warmUp(null, iterations);
+    }
+
+    /**
+     * Prepares the engine for its first requests, which are otherwise much slower than later ones: builds the tables
+     * built lazily on first use, then requests completions for each input of the corpus the given number of times,
+     * populating the lexer's DFA cache and letting the JIT compile the hot methods. Requests can be served while
+     * warming up, they are just slower.
+     *
+     * @return how long the warm-up took
+     */
+    public Duration warmUp(Collection<String> corpus, int iterations) {
+        long start = System.nanoTime();
+        lexerWrapper.buildDerivedTables();
+        parserWrapper.buildDerivedTables();
+        Collection<String> inputs = (corpus == null) ? generateWarmUpCorpus() : corpus;
+        for (int i = 0; i < iterations; ++i) {
+            for (String input : inputs) {
+                new AutoSuggester(this, input).suggestCompletions();
+            }
+        }
+        warmedUp = true;
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Whether a warm-up has completed, e.g. for a readiness probe.
+     */
+    public boolean isWarmedUp() {
+        return warmedUp;
+    }
+
+    /**
+     * Inputs reached from the empty one by appending suggestions, breadth first, taking the first few suggestions of
+     * each input.
+     */
+    private List<String> generateWarmUpCorpus() {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        for (int i = 0; i < result.size() && result.size() < MAX_GENERATED_WARM_UP_INPUTS; ++i) {
+            String input = result.get(i);
+            List<String> suggestions = new ArrayList<>(new AutoSuggester(this, input).suggestCompletions());
+            Collections.sort(suggestions);
+            for (String suggestion : suggestions.subList(0, Math.min(SUGGESTIONS_FOLLOWED_PER_INPUT,
+                    suggestions.size()))) {
+                if (result.size() < MAX_GENERATED_WARM_UP_INPUTS) {
+                    result.add(input + suggestion);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A new lexer of the grammar, for callers that lex documents themselves and pass the tokens to
+     * {@link AutoSuggester#AutoSuggester(GrammarEngine, String, List, String)}.
+     */
+    public Lexer createLexer(String input) {
+        return lexerWrapper.createLexer(input);
+    }
+
+    /**
+     * Traces the requests of suggesters created from now on with this engine.
+     */
+    public void setTracer(SuggestionTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public SuggestionTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * A digest of the lexer and parser ATNs, vocabulary and rule names. Engines with the same hash produce the same
+     * suggestions, so one of them can serve both grammars.
+     */
+    public String getContentHash() {
+        if (contentHash == null) {
+            contentHash = computeContentHash();
+        }
+        return contentHash;
+    }
+
+    /**
+     * What was pruned from the parser ATN when this engine was built: states that cannot reach the end of their
+     * rule, and transitions on token types the lexer never emits.
+     */
+    public PruningReport getPruningReport() {
+        return parserWrapper.getPruningReport();
+    }
+
+    /**
+     * Rough estimate of the memory retained by this engine's ATNs, derived tables and caches, in bytes.
+     */
+    public long estimateRetainedBytes() {
+        return lexerWrapper.estimateRetainedBytes() + parserWrapper.estimateRetainedBytes();
+    }
+
+    private String computeContentHash() {
+        MessageDigest digest = newDigest();
+        updateDigest(digest, lexerWrapper.getAtn());
+        updateDigest(digest, parserWrapper.getAtn());
+        updateDigest(digest, lexerWrapper.getRuleNames());
+        updateDigest(digest, parserWrapper.getRuleNames());
+        Vocabulary vocabulary = lexerWrapper.getVocabulary();
+        for (int tokenType = 0; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            updateDigest(digest, vocabulary.getDisplayName(tokenType));
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, ATN atn) {
+        IntegerList serialized = ATNSerializer.getSerialized(atn);
+        for (int i = 0; i < serialized.size(); ++i) {
+            int value = serialized.get(i);
+            digest.update((byte) (value >>> 24));
+            digest.update((byte) (value >>> 16));
+            digest.update((byte) (value >>> 8));
+            digest.update((byte) value);
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, String... strings) {
+        for (String s : strings) {
+            digest.update(String.valueOf(s).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+    }
+
+    static long estimateAtnBytes(ATN atn) {
+        long result = OBJECT_HEADER_BYTES + REFERENCE_BYTES * atn.states.size();
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            result += 2 * OBJECT_HEADER_BYTES + 32; // State and its transition list
+            for (Transition trans : state.getTransitions()) {
+                result += REFERENCE_BYTES + OBJECT_HEADER_BYTES + 16;
+                if (trans instanceof SetTransition) {
+                    result += estimateIntervalSetBytes(((SetTransition) trans).label().getIntervals().size());
+                }
+            }
+        }
+        return result;
+    }
+
+    static long estimateIntervalSetBytes(int intervalCount) {
+        return 2 * OBJECT_HEADER_BYTES + intervalCount * (REFERENCE_BYTES + OBJECT_HEADER_BYTES + 8);
+    }
+}
@@ -0,0 +1,169 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds and caches one {@link GrammarEngine} per grammar, for hosting many grammars in one JVM.
+ *
+ * Grammars whose engines have identical content (see {@link GrammarEngine#getContentHash()}) share a single engine.
+ * When the estimated memory retained by all engines exceeds the configured budget, the least recently used engines
+ * are evicted; they are rebuilt on their next use. Callers still holding an evicted engine can keep using it.
+ *
+ * Content hashes and memory estimates walk the whole grammar, so they are computed outside the registry lock, which
+ * only guards the maps and the recency order.
+ */
+public class GrammarEngineRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(GrammarEngineRegistry.class);
+
+    private final Function<String, ? extends LexerAndParserFactory> factoryLoader;
+    private final long memoryBudgetBytes;
+
+    // Access ordered, so iteration starts from the least recently used engine
+    private final LinkedHashMap<String, RegisteredEngine> enginesByContentHash = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, RegisteredEngine> enginesByGrammarId = new HashMap<>();
+
+    private static class RegisteredEngine {
+        final GrammarEngine engine;
+        final String contentHash;
+        final Set<String> grammarIds = new HashSet<>();
+        long estimatedBytes; // As of the last estimate, guarded by the registry lock
+
+        RegisteredEngine(GrammarEngine engine, String contentHash, long estimatedBytes) {
+            this.engine = engine;
+            this.contentHash = contentHash;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    /**
+     * @param factoryLoader
+     *            creates the lexer and parser factory of a grammar given its ID
+     * @param memoryBudgetBytes
+     *            the estimated memory all cached engines may retain together
+     */
+    public GrammarEngineRegistry(Function<String, ? extends LexerAndParserFactory> factoryLoader,
+            long memoryBudgetBytes) {
+        this.factoryLoader = factoryLoader;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    /**
+     * Returns the engine for the given grammar, building it if needed. Engines are built outside the registry lock,
+     * so a slow build does not block requests for other grammars.
+     */
+    public GrammarEngine getEngine(String grammarId) {
+        GrammarEngine cached = getCachedEngine(grammarId);
+        if (cached != null) {
+            return cached;
+        }
+        GrammarEngine builtEngine = new GrammarEngine(factoryLoader.apply(grammarId));
+        return register(grammarId, builtEngine, builtEngine.getContentHash(), builtEngine.estimateRetainedBytes());
+    }
+
+    public synchronized boolean isCached(String grammarId) {
+        return enginesByGrammarId.containsKey(grammarId);
+    }
+
+    public synchronized int getCachedEngineCount() {
+        return enginesByContentHash.size();
+    }
+
+    public long estimateRetainedBytes() {
+        updateEstimates();
+        synchronized (this) {
+            return sumEstimatedBytes();
+        }
+    }
+
+    /**
+     * Evicts least recently used engines until the cached engines fit the memory budget. Called whenever an engine
+     * is added, and can be called periodically since engine caches grow as they are used.
+     */
+    public void enforceMemoryBudget() {
+        updateEstimates();
+        synchronized (this) {
+            evictUntilWithinBudget(null);
+        }
+    }
+
+    /**
+     * Estimates the memory retained by each cached engine again, without holding the lock while estimating.
+     */
+    private void updateEstimates() {
+        List<RegisteredEngine> registeredEngines;
+        synchronized (this) {
+            registeredEngines = new ArrayList<>(enginesByContentHash.values());
+        }
+        long[] estimates = new long[registeredEngines.size()];
+        for (int i = 0; i < estimates.length; ++i) {
+            estimates[i] = registeredEngines.get(i).engine.estimateRetainedBytes();
+        }
+        synchronized (this) {
+            for (int i = 0; i < estimates.length; ++i) {
+                registeredEngines.get(i).estimatedBytes = estimates[i];
+            }
+        }
+    }
+
+    private synchronized GrammarEngine getCachedEngine(String grammarId) {
+        RegisteredEngine registered = enginesByGrammarId.get(grammarId);
+        if (registered == null) {
+            return null;
+        }
+        enginesByContentHash.get(registered.contentHash); // Mark as recently used
+        return registered.engine;
+    }
+
+    private synchronized GrammarEngine register(String grammarId, GrammarEngine builtEngine, String contentHash,
+            long estimatedBytes) {
+        RegisteredEngine registered = enginesByGrammarId.get(grammarId);
+        if (registered != null) {
+            return registered.engine; // Built concurrently by another thread
+        }
+        registered = enginesByContentHash.get(contentHash);
+        if (registered == null) {
+            registered = new RegisteredEngine(builtEngine, contentHash, estimatedBytes);
+            enginesByContentHash.put(contentHash, registered);
+        } else {
+            logger.debug("Grammar " + grammarId + " shares its engine with " + registered.grammarIds);
+        }
+        registered.grammarIds.add(grammarId);
+        enginesByGrammarId.put(grammarId, registered);
+        evictUntilWithinBudget(registered);
+        return registered.engine;
+    }
+
+    private long sumEstimatedBytes() {
+        long result = 0;
+        for (RegisteredEngine registered : enginesByContentHash.values()) {
+            result += registered.estimatedBytes;
+        }
+        return result;
+    }
+
+    private void evictUntilWithinBudget(RegisteredEngine toKeep) {
+        long retainedBytes = sumEstimatedBytes();
+        Iterator<RegisteredEngine> leastRecentlyUsedFirst = enginesByContentHash.values().iterator();
+        while (retainedBytes > memoryBudgetBytes && leastRecentlyUsedFirst.hasNext()) {
+            RegisteredEngine registered = leastRecentlyUsedFirst.next();
+            if (registered == toKeep) {
+                continue;
+            }
+            logger.debug("Evicting engine of grammars " + registered.grammarIds);
+            leastRecentlyUsedFirst.remove();
+            enginesByGrammarId.keySet().removeAll(registered.grammarIds);
+            retainedBytes -= registered.estimatedBytes;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of {@link GrammarProfiler}: how the parser ATN walk spent its effort, per state and per rule. Both are
+ * ranked with the most visited first, so the states and rules behind an exponential exploration come out on top.
+ */
+public class GrammarProfile {
+    private static final Comparator<Stats> MOST_EXPENSIVE_FIRST = Comparator.comparingLong((Stats s) -> s.visits)
+            .thenComparingLong(s -> s.selfNanos).reversed();
+
+    private final int completionCount;
+    private final List<StateStats> states;
+    private final List<RuleStats> rules;
+
+    /**
+     * Counters shared by states and rules.
+     */
+    public abstract static class Stats {
+        /**
+         * How many times the walk entered the state, or any state of the rule.
+         */
+        public final long visits;
+        /**
+         * Visits from which the walk backtracked without reaching the end of input.
+         */
+        public final long deadEnds;
+        /**
+         * Times the walk reached the state again before consuming a token, and cut the loop.
+         */
+        public final long loopCuts;
+        /**
+         * Time spent in the state itself, excluding the states entered from it.
+         */
+        public final long selfNanos;
+
+        Stats(long visits, long deadEnds, long loopCuts, long selfNanos) {
+            this.visits = visits;
+            this.deadEnds = deadEnds;
+            this.loopCuts = loopCuts;
+            this.selfNanos = selfNanos;
+        }
+    }
+
+    public static class StateStats extends Stats {
+        public final int stateNumber;
+        public final String stateType;
+        public final String ruleName;
+        /**
+         * The number of states reachable through epsilon transitions, not returning from the rule.
+         */
+        public final int epsilonClosureSize;
+
+        StateStats(int stateNumber, String stateType, String ruleName, long visits, long deadEnds, long loopCuts,
+                int epsilonClosureSize, long selfNanos) {
+            super(visits, deadEnds, loopCuts, selfNanos);
+            this.stateNumber = stateNumber;
+            this.stateType = stateType;
+            this.ruleName = ruleName;
+            this.epsilonClosureSize = epsilonClosureSize;
+        }
+    }
+
+    public static class RuleStats extends Stats {
+        public final String ruleName;
+        /**
+         * The largest epsilon closure of any of the rule's states.
+         */
+        public final int maxEpsilonClosureSize;
+
+        RuleStats(String ruleName, long visits, long deadEnds, long loopCuts, int maxEpsilonClosureSize,
+                long selfNanos) {
+            super(visits, deadEnds, loopCuts, selfNanos);
+            this.ruleName = ruleName;
+            this.maxEpsilonClosureSize = maxEpsilonClosureSize;
+        }
+    }
+
+    GrammarProfile(int completionCount, List<StateStats> stateStats) {
+        this.completionCount = completionCount;
+        List<StateStats> sortedStates = new ArrayList<>(stateStats);
+        sortedStates.sort(MOST_EXPENSIVE_FIRST);
+        this.states = Collections.unmodifiableList(sortedStates);
+        this.rules = Collections.unmodifiableList(aggregateRules(sortedStates));
+    }
+
+    private static List<RuleStats> aggregateRules(List<StateStats> stateStats) {
+        Map<String, List<StateStats>> statesByRule = new LinkedHashMap<>();
+        for (StateStats state : stateStats) {
+            statesByRule.computeIfAbsent(state.ruleName, r -> new ArrayList<>()).add(state);
+        }
+        List<RuleStats> result = new ArrayList<>();
+        for (Map.Entry<String, List<StateStats>> ruleAndStates : statesByRule.entrySet()) {
+            long visits = 0, deadEnds = 0, loopCuts = 0, selfNanos = 0;
+            int maxEpsilonClosureSize = 0;
+            for (StateStats state : ruleAndStates.getValue()) {
+                visits += state.visits;
+                deadEnds += state.deadEnds;
+                loopCuts += state.loopCuts;
+                selfNanos += state.selfNanos;
+                maxEpsilonClosureSize = Math.max(maxEpsilonClosureSize, state.epsilonClosureSize);
+            }
+            result.add(new RuleStats(ruleAndStates.getKey(), visits, deadEnds, loopCuts,
+                    maxEpsilonClosureSize, selfNanos));
+        }
+        result.sort(MOST_EXPENSIVE_FIRST);
+        return result;
+    }
+
+    /**
+     * The number of completions requested while profiling, one per token boundary of each corpus input.
+     */
+    public int getCompletionCount() {
+        return completionCount;
+    }
+
+    public List<StateStats> getStates() {
+        return states;
+    }
+
+    public List<RuleStats> getRules() {
+        return rules;
+    }
+
+    /**
+     * A human readable report, listing at most the given number of states and of rules.
+     */
+    public String toText(int maxRows) {
+        StringBuilder result = new StringBuilder();
+        result.append("Completions requested: ").append(completionCount).append('\n');
+        result.append("\nRules:\n");
+        result.append(String.format("%-30s %12s %12s %10s %8s %12s%n", "rule", "visits", "dead ends", "loop cuts",
+                "closure", "self ms"));
+        for (RuleStats rule : rules.subList(0, Math.min(maxRows, rules.size()))) {
+            result.append(String.format("%-30s %12d %12d %10d %8d %12.3f%n", rule.ruleName, rule.visits,
+                    rule.deadEnds, rule.loopCuts, rule.maxEpsilonClosureSize, rule.selfNanos / 1e6));
+        }
+        result.append("\nStates:\n");
+        result.append(String.format("%-8s %-24s %-30s %12s %12s %10s %8s %12s%n", "state", "type", "rule", "visits",
+                "dead ends", "loop cuts", "closure", "self ms"));
+        for (StateStats state : states.subList(0, Math.min(maxRows, states.size()))) {
+            result.append(String.format("%-8d %-24s %-30s %12d %12d %10d %8d %12.3f%n", state.stateNumber,
+                    state.stateType, state.ruleName, state.visits, state.deadEnds, state.loopCuts,
+                    state.epsilonClosureSize, state.selfNanos / 1e6));
+        }
+        return result.toString();
+    }
+
+    public String toJson() {
+        StringBuilder result = new StringBuilder();
+        result.append("{\"completions\":").append(completionCount).append(",\"rules\":[");
+        for (int i = 0; i < rules.size(); ++i) {
+            RuleStats rule = rules.get(i);
+            result.append(i == 0 ? "" : ",").append("{\"rule\":").append(jsonString(rule.ruleName));
+            appendJsonStats(result, rule);
+            result.append(",\"maxEpsilonClosureSize\":").append(rule.maxEpsilonClosureSize).append('}');
+        }
+        result.append("],\"states\":[");
+        for (int i = 0; i < states.size(); ++i) {
+            StateStats state = states.get(i);
+            result.append(i == 0 ? "" : ",").append("{\"state\":").append(state.stateNumber);
+            result.append(",\"type\":").append(jsonString(state.stateType));
+            result.append(",\"rule\":").append(jsonString(state.ruleName));
+            appendJsonStats(result, state);
+            result.append(",\"epsilonClosureSize\":").append(state.epsilonClosureSize).append('}');
+        }
+        return result.append("]}").toString();
+    }
+
+    private static void appendJsonStats(StringBuilder result, Stats stats) {
+        result.append(",\"visits\":").append(stats.visits);
+        result.append(",\"deadEnds\":").append(stats.deadEnds);
+        result.append(",\"loopCuts\":").append(stats.loopCuts);
+        result.append(",\"selfNanos\":").append(stats.selfNanos);
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
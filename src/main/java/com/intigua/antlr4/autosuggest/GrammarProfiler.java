@@ -0,0 +1,199 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.Transition;
+
+/**
+ * Finds the parts of a grammar that make suggesting slow. A corpus of inputs is replayed through
+ * {@link AutoSuggester}, requesting completions at every token boundary, and the walk through the parser ATN is
+ * aggregated per state and per rule into a {@link GrammarProfile}.
+ *
+ * Can also be run from the command line: {@code GrammarProfiler <lexer class> <parser class> <corpus file>...
+ * [--json]}, where each line of a corpus file is one input.
+ */
+public class GrammarProfiler {
+    private final GrammarEngine grammarEngine;
+    private CasePreference casePreference = CasePreference.BOTH;
+
+    public GrammarProfiler(GrammarEngine grammarEngine) {
+        this.grammarEngine = grammarEngine;
+    }
+
+    public void setCasePreference(CasePreference casePreference) {
+        this.casePreference = casePreference;
+    }
+
+    public GrammarProfile profile(Collection<String> corpus) {
+        ATN parserAtn = grammarEngine.getParserWrapper().getAtn();
+        Recorder recorder = new Recorder(parserAtn.states.size());
+        int completionCount = 0;
+        for (String input : corpus) {
+            for (String prefix : getTokenBoundaryPrefixes(input)) {
+                AutoSuggester suggester = new AutoSuggester(grammarEngine, prefix);
+                suggester.setCasePreference(casePreference);
+                suggester.setParserWalkListener(recorder);
+                suggester.suggestCompletions();
+                ++completionCount;
+            }
+        }
+        String[] ruleNames = grammarEngine.getParserWrapper().getRuleNames();
+        List<GrammarProfile.StateStats> stateStats = new ArrayList<>();
+        for (ATNState state : parserAtn.states) {
+            if (state == null || recorder.visits[state.stateNumber] == 0) {
+                continue;
+            }
+            int n = state.stateNumber;
+            stateStats.add(new GrammarProfile.StateStats(n, state.getClass().getSimpleName(),
+                    ruleNames[state.ruleIndex], recorder.visits[n], recorder.deadEnds[n], recorder.loopCuts[n],
+                    computeEpsilonClosureSize(state), recorder.selfNanos[n]));
+        }
+        return new GrammarProfile(completionCount, stateStats);
+    }
+
+    /**
+     * The empty input, each input prefix ending right after a token, and the whole input.
+     */
+    private List<String> getTokenBoundaryPrefixes(String input) {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        for (Token token : grammarEngine.getLexerWrapper().tokenizeNonDefaultChannel(input).tokens) {
+            // Token indices count code points, not UTF-16 chars
+            String prefix = input.substring(0, input.offsetByCodePoints(0, token.getStopIndex() + 1));
+            if (!prefix.equals(result.get(result.size() - 1))) {
+                result.add(prefix);
+            }
+        }
+        if (!input.equals(result.get(result.size() - 1))) {
+            result.add(input);
+        }
+        return result;
+    }
+
+    /**
+     * The number of states reachable from the given one through epsilon transitions, which is the work of one visit
+     * to it regardless of input. Returns from rules are not followed, since they depend on the caller.
+     */
+    static int computeEpsilonClosureSize(ATNState state) {
+        BitSet reached = new BitSet();
+        Deque<ATNState> pending = new ArrayDeque<>();
+        reached.set(state.stateNumber);
+        pending.push(state);
+        while (!pending.isEmpty()) {
+            ATNState current = pending.pop();
+            if (current instanceof RuleStopState) {
+                continue;
+            }
+            for (Transition trans : current.getTransitions()) {
+                if (trans.isEpsilon() && !reached.get(trans.target.stateNumber)) {
+                    reached.set(trans.target.stateNumber);
+                    pending.push(trans.target);
+                }
+            }
+        }
+        return reached.cardinality() - 1;
+    }
+
+    /**
+     * Accumulates the walk events of all suggesters. A state's self time excludes the time spent in the states
+     * entered from it, and a visit is a dead end when no end of input is reached from it.
+     */
+    private static class Recorder implements ParserWalkListener {
+        final long[] visits;
+        final long[] deadEnds;
+        final long[] loopCuts;
+        final long[] selfNanos;
+        private final Deque<Frame> frames = new ArrayDeque<>();
+
+        private static class Frame {
+            final ATNState state;
+            final long startNanos;
+            long childNanos;
+            boolean reachedEndOfInput;
+
+            Frame(ATNState state, long startNanos) {
+                this.state = state;
+                this.startNanos = startNanos;
+            }
+        }
+
+        Recorder(int stateCount) {
+            this.visits = new long[stateCount];
+            this.deadEnds = new long[stateCount];
+            this.loopCuts = new long[stateCount];
+            this.selfNanos = new long[stateCount];
+        }
+
+        @Override
+        public void stateEntered(ATNState parserState, int tokenListIndex) {
+            ++visits[parserState.stateNumber];
+            frames.push(new Frame(parserState, System.nanoTime()));
+        }
+
+        @Override
+        public void stateExited(ATNState parserState) {
+            Frame frame = frames.pop();
+            long elapsed = System.nanoTime() - frame.startNanos;
+            selfNanos[frame.state.stateNumber] += elapsed - frame.childNanos;
+            if (!frame.reachedEndOfInput) {
+                ++deadEnds[frame.state.stateNumber];
+            }
+            Frame parent = frames.peek();
+            if (parent != null) {
+                parent.childNanos += elapsed;
+                parent.reachedEndOfInput |= frame.reachedEndOfInput;
+            }
+        }
+
+        @Override
+        public void loopCut(ATNState parserState) {
+            ++loopCuts[parserState.stateNumber];
+        }
+
+        @Override
+        public void endOfInputReached(ATNState parserState) {
+            frames.peek().reachedEndOfInput = true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        List<String> files = new ArrayList<>();
+        boolean json = false;
+        for (String arg : args) {
+            if (arg.equals("--json")) {
+                json = true;
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() < 3) {
+            System.err.println("Usage: GrammarProfiler <lexer class> <parser class> <corpus file>... [--json]");
+            System.exit(2);
+        }
+        Class<? extends Lexer> lexerClass = (Class<? extends Lexer>) Class.forName(files.get(0));
+        Class<? extends Parser> parserClass = (Class<? extends Parser>) Class.forName(files.get(1));
+        List<String> corpus = new ArrayList<>();
+        for (String file : files.subList(2, files.size())) {
+            corpus.addAll(Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8));
+        }
+        GrammarEngine engine = new GrammarEngine(new ReflectionLexerAndParserFactory(lexerClass, parserClass));
+        GrammarProfile profile = new GrammarProfiler(engine).profile(corpus);
+        System.out.println(json ? profile.toJson() : profile.toText(50));
+    }
+}
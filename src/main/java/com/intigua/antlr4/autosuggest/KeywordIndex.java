@@ -0,0 +1,237 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+/**
+ * Per-grammar index of keyword-like token texts, used for typo-tolerant completion.
+ *
+ * A token type is keyword-like when its lexer rules spell out only a handful of texts (e.g. 'SELECT', or
+ * S E L E C T built from case-insensitive letter fragments), as opposed to identifiers or numbers. Texts are grouped
+ * by token type, so a search only scans the keywords the parser accepts. Matching is bit-parallel (Myers' algorithm
+ * over a 64-bit word), so each keyword costs a few machine operations per character.
+ */
+class KeywordIndex {
+    /**
+     * Token types spelling out more texts than this are not considered keywords.
+     */
+    static final int MAX_TEXTS_PER_TOKEN_TYPE = 4;
+
+    /**
+     * How many texts to enumerate per token type before validating them. The enumeration does not track which
+     * caller a fragment returns to, so a fragment used twice adds texts the lexer does not produce.
+     */
+    private static final int MAX_ENUMERATED_TEXTS = 4 * MAX_TEXTS_PER_TOKEN_TYPE;
+
+    private static final Comparator<FuzzySuggestion> BEST_FIRST = Comparator
+            .comparingInt(FuzzySuggestion::getEditDistance)
+            .thenComparingInt(s -> s.getText().length())
+            .thenComparing(FuzzySuggestion::getText);
+
+    private final Map<Integer, Keyword[]> keywordsByTokenType;
+
+    private static class Keyword {
+        final String text;
+        final char[] foldedText;
+
+        Keyword(String text) {
+            this.text = text;
+            this.foldedText = text.toLowerCase().toCharArray();
+        }
+    }
+
+    private KeywordIndex(Map<Integer, Keyword[]> keywordsByTokenType) {
+        this.keywordsByTokenType = keywordsByTokenType;
+    }
+
+    /**
+     * Spells out each token type in a single case, since matching ignores case: a keyword built of case-insensitive
+     * letter fragments has one text rather than one per combination of cases. Only texts the lexer reads back as a
+     * single token of that type are kept.
+     */
+    public static KeywordIndex build(LexerWrapper lexerWrapper, int lexerMode, CasePreference casePreference) {
+        CasePreference spellingCase = (casePreference == CasePreference.LOWER) ? CasePreference.LOWER
+                : CasePreference.UPPER;
+        Map<Integer, Keyword[]> keywordsByTokenType = new HashMap<>();
+        Vocabulary vocabulary = lexerWrapper.getVocabulary();
+        for (int tokenType = 1; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (lexerWrapper.findStartStatesByTokenType(lexerMode, tokenType).isEmpty()) {
+                continue;
+            }
+            TokenSuggester tokenSuggester = new TokenSuggester("", lexerWrapper, spellingCase, lexerMode);
+            tokenSuggester.setMaxSuggestions(MAX_ENUMERATED_TEXTS + 1);
+            Collection<String> enumeratedTexts = tokenSuggester.suggest(Collections.singleton(tokenType));
+            if (enumeratedTexts.size() > MAX_ENUMERATED_TEXTS) {
+                continue;
+            }
+            Map<String, String> textsByFoldedText = new TreeMap<>();
+            for (String text : enumeratedTexts) {
+                if (isLexedAsSingleToken(lexerWrapper, lexerMode, text, tokenType)) {
+                    textsByFoldedText.merge(text.toLowerCase(), text,
+                            (kept, other) -> isInCase(other, spellingCase) ? other : kept);
+                }
+            }
+            if (textsByFoldedText.isEmpty() || textsByFoldedText.size() > MAX_TEXTS_PER_TOKEN_TYPE) {
+                continue;
+            }
+            keywordsByTokenType.put(tokenType,
+                    textsByFoldedText.values().stream().map(Keyword::new).toArray(Keyword[]::new));
+        }
+        return new KeywordIndex(keywordsByTokenType);
+    }
+
+    private static boolean isLexedAsSingleToken(LexerWrapper lexerWrapper, int lexerMode, String text,
+            int tokenType) {
+        Lexer lexer = lexerWrapper.createLexer(text);
+        lexer.removeErrorListeners();
+        lexer.mode(lexerMode);
+        Token token = lexer.nextToken();
+        // The lexer skips characters it cannot match, so the token must span the whole text
+        return token.getType() == tokenType && token.getStartIndex() == 0
+                && token.getStopIndex() == text.codePointCount(0, text.length()) - 1
+                && lexer.nextToken().getType() == Token.EOF;
+    }
+
+    private static boolean isInCase(String text, CasePreference spellingCase) {
+        return text.equals((spellingCase == CasePreference.LOWER) ? text.toLowerCase() : text.toUpperCase());
+    }
+
+    /**
+     * The text of the given token type if it is a keyword with a single spelling, e.g. a literal token, else null.
+     */
+    public String getOnlyText(int tokenType) {
+        Keyword[] keywords = keywordsByTokenType.get(tokenType);
+        return (keywords == null || keywords.length != 1) ? null : keywords[0].text;
+    }
+
+    public int size() {
+        return keywordsByTokenType.values().stream().mapToInt(keywords -> keywords.length).sum();
+    }
+
+    public long estimateRetainedBytes() {
+        long result = 64;
+        for (Keyword[] keywords : keywordsByTokenType.values()) {
+            result += 64;
+            for (Keyword keyword : keywords) {
+                result += 96 + 4L * keyword.text.length();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the keywords of the given token types whose beginning is within maxEditDistance of the typed word, or
+     * that contain all of the typed characters in order (e.g. grpby for GROUP BY). Returns the best maxResults
+     * matches, fewest edits first.
+     */
+    public List<FuzzySuggestion> search(String typedWord, Collection<Integer> tokenTypes, int maxEditDistance,
+            int maxResults) {
+        if (typedWord.isEmpty() || typedWord.length() > Long.SIZE || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+        char[] foldedTypedWord = typedWord.toLowerCase().toCharArray();
+        PatternMasks pattern = new PatternMasks(foldedTypedWord);
+        PriorityQueue<FuzzySuggestion> worstFirst = new PriorityQueue<>(maxResults + 1, BEST_FIRST.reversed());
+        for (int tokenType : tokenTypes) {
+            Keyword[] keywords = keywordsByTokenType.get(tokenType);
+            if (keywords == null) {
+                continue;
+            }
+            for (Keyword keyword : keywords) {
+                int editDistance = prefixEditDistance(pattern, keyword.foldedText);
+                if (editDistance <= maxEditDistance || isSubsequence(foldedTypedWord, keyword.foldedText)) {
+                    worstFirst.add(new FuzzySuggestion(keyword.text, tokenType, editDistance, typedWord.length()));
+                    if (worstFirst.size() > maxResults) {
+                        worstFirst.poll();
+                    }
+                }
+            }
+        }
+        List<FuzzySuggestion> result = new ArrayList<>(worstFirst);
+        result.sort(BEST_FIRST);
+        return result;
+    }
+
+    /**
+     * The smallest edit distance between the pattern and any prefix of the text, computed with Myers' bit-vector
+     * algorithm: bit i of the vertical delta vectors tracks how row i of the dynamic programming column changes.
+     */
+    static int prefixEditDistance(PatternMasks pattern, char[] text) {
+        int patternLength = pattern.length;
+        long lastRowBit = 1L << (patternLength - 1);
+        long positiveVertical = -1L;
+        long negativeVertical = 0;
+        int score = patternLength;
+        int bestScore = score;
+        for (char c : text) {
+            long equal = pattern.maskFor(c);
+            long verticalChange = equal | negativeVertical;
+            long horizontalChange = (((equal & positiveVertical) + positiveVertical) ^ positiveVertical) | equal;
+            long positiveHorizontal = negativeVertical | ~(horizontalChange | positiveVertical);
+            long negativeHorizontal = positiveVertical & horizontalChange;
+            if ((positiveHorizontal & lastRowBit) != 0) {
+                ++score;
+            } else if ((negativeHorizontal & lastRowBit) != 0) {
+                --score;
+            }
+            positiveHorizontal = (positiveHorizontal << 1) | 1; // Row 0 grows with the text: no free prefix skipping
+            negativeHorizontal = negativeHorizontal << 1;
+            positiveVertical = negativeHorizontal | ~(verticalChange | positiveHorizontal);
+            negativeVertical = positiveHorizontal & verticalChange;
+            bestScore = Math.min(bestScore, score);
+        }
+        return bestScore;
+    }
+
+    static boolean isSubsequence(char[] subsequence, char[] text) {
+        int matched = 0;
+        for (int i = 0; i < text.length && matched < subsequence.length; ++i) {
+            if (text[i] == subsequence[matched]) {
+                ++matched;
+            }
+        }
+        return matched == subsequence.length;
+    }
+
+    /**
+     * For each character, the bit mask of the pattern positions holding it.
+     */
+    static class PatternMasks {
+        private static final int ASCII_SIZE = 128;
+
+        final int length;
+        private final long[] asciiMasks = new long[ASCII_SIZE];
+        private final Map<Character, Long> otherMasks = new HashMap<>();
+
+        PatternMasks(char[] pattern) {
+            this.length = pattern.length;
+            for (int i = 0; i < pattern.length; ++i) {
+                char c = pattern[i];
+                if (c < ASCII_SIZE) {
+                    asciiMasks[c] |= 1L << i;
+                } else {
+                    otherMasks.merge(c, 1L << i, (a, b) -> a | b);
+                }
+            }
+        }
+
+        long maskFor(char c) {
+            if (c < ASCII_SIZE) {
+                return asciiMasks[c];
+            }
+            Long mask = otherMasks.get(c);
+            return (mask == null) ? 0 : mask;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.intigua.antlr4.autosuggest;
+
+/**
+ * Counts recorded values in logarithmic buckets with linear sub-buckets, like HdrHistogram: any non-negative long can
+ * be recorded in constant time and space, and reported percentiles are within 1/64 of the recorded values.
+ *
+ * Not thread safe; record in one histogram per thread and {@link #add} them together.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values below this are counted exactly, larger ones in SUB_BUCKET_COUNT buckets per power of two
+    private static final int EXACT_VALUE_COUNT = 2 * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = EXACT_VALUE_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long max;
+    private double sum;
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        ++counts[bucketIndex(value)];
+        ++totalCount;
+        max = Math.max(max, value);
+        sum += value;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+        sum += other.sum;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * The highest value equivalent to the recorded value at the given percentile (0 to 100), never above the maximum.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < EXACT_VALUE_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS; // So that value >> shift has 7 bits
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return EXACT_VALUE_COUNT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestEquivalentValue(int bucketIndex) {
+        if (bucketIndex < EXACT_VALUE_COUNT) {
+            return bucketIndex;
+        }
+        int shift = (bucketIndex - EXACT_VALUE_COUNT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (bucketIndex - EXACT_VALUE_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -2,28 +2,54 @@ package com.intigua.antlr4.autosuggest;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
-import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.LexerInterpreter;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATN;
 import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.AtomTransition;
+import org.antlr.v4.runtime.atn.LexerAction;
+import org.antlr.v4.runtime.atn.LexerCustomAction;
+import org.antlr.v4.runtime.atn.LexerTypeAction;
+import org.antlr.v4.runtime.atn.RuleStartState;
+import org.antlr.v4.runtime.atn.TokensStartState;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.misc.IntervalSet;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 public class LexerWrapper {
+    private static final Set<String> TOKEN_EMITTING_METHODS = new HashSet<>(
+            Arrays.asList("nextToken", "emit", "emitEOF"));
     private final LexerFactory lexerFactory;
-    private Lexer cachedLexer;
+    private volatile Lexer cachedLexer;
+    private volatile List<Map<Integer, List<ATNState>>> tokenStartStatesByMode;
+    private volatile CompiledAtn compiledAtn;
+    private final Map<Transition, CharacterClass> characterClasses = new ConcurrentHashMap<>();
+    private final Map<String, KeywordIndex> keywordIndices = new ConcurrentHashMap<>();
+    private final Map<String, PrefixDfa> prefixDfas = new ConcurrentHashMap<>();
 
     static class TokenizationResult {
         public List<? extends Token> tokens;
         public String untokenizedText = "";
+        public int lexerMode = Lexer.DEFAULT_MODE;
     }
 
     public LexerWrapper(LexerFactory lexerFactory) {
@@ -37,17 +63,148 @@ public class LexerWrapper {
         return result;
     }
 
+    /**
+     * Wraps tokens lexed by the caller like the result of {@link #tokenizeNonDefaultChannel(String)}: tokens on
+     * other channels, EOF and tokens starting at or after the end of the input are dropped.
+     */
+    public static TokenizationResult fromProvidedTokens(String input, List<? extends Token> tokens,
+            String untokenizedText) {
+        int inputCodePoints = input.codePointCount(0, input.length()); // Token indices count code points
+        TokenizationResult result = new TokenizationResult();
+        result.tokens = tokens.stream()
+                .filter(t -> t.getChannel() == Token.DEFAULT_CHANNEL && t.getType() != Token.EOF
+                        && t.getStartIndex() < inputCodePoints)
+                .collect(Collectors.toList());
+        result.untokenizedText = untokenizedText;
+        return result;
+    }
+
     public String[] getRuleNames() {
         return getCachedLexer().getRuleNames();
     }
 
-    public ATNState findStateByRuleNumber(int ruleNumber) {
-        return getCachedLexer().getATN().ruleToStartState[ruleNumber];
+    /**
+     * Finds the start states of the lexer rules producing the given token type, limited to rules that can match in
+     * the given lexer mode.
+     */
+    public List<ATNState> findStartStatesByTokenType(int lexerMode, int tokenType) {
+        List<Map<Integer, List<ATNState>>> startStatesByMode = getTokenStartStatesByMode();
+        if (lexerMode < 0 || lexerMode >= startStatesByMode.size()) {
+            return Collections.emptyList();
+        }
+        List<ATNState> result = startStatesByMode.get(lexerMode).get(tokenType);
+        return (result == null) ? Collections.<ATNState>emptyList() : result;
     }
 
     public Vocabulary getVocabulary() {
         return getCachedLexer().getVocabulary();
     }
+
+    /**
+     * Returns the characters matched by a non-atom lexer transition, computed once per transition.
+     */
+    public CharacterClass getCharacterClass(Transition lexerTransition) {
+        return characterClasses.computeIfAbsent(lexerTransition, CharacterClass::of);
+    }
+
+    /**
+     * Returns the index of keyword-like tokens of the given lexer mode, built on first use.
+     */
+    public KeywordIndex getKeywordIndex(int lexerMode, CasePreference casePreference) {
+        String key = lexerMode + ":" + casePreference;
+        return keywordIndices.computeIfAbsent(key, k -> KeywordIndex.build(this, lexerMode, casePreference));
+    }
+
+    /**
+     * Returns the DFA matching typed prefixes against the token rule starting at the given state, built up on use.
+     */
+    PrefixDfa getPrefixDfa(ATNState ruleStartState, CasePreference casePreference) {
+        String key = ruleStartState.stateNumber + ":" + casePreference;
+        return prefixDfas.computeIfAbsent(key,
+                k -> new PrefixDfa(this, ruleStartState.stateNumber, casePreference));
+    }
+
+    public ATN getAtn() {
+        return getCachedLexer().getATN();
+    }
+
+    CompiledAtn getCompiledAtn() {
+        if (compiledAtn == null) {
+            compiledAtn = new CompiledAtn(getAtn());
+        }
+        return compiledAtn;
+    }
+
+    /**
+     * Builds the tables otherwise built on first use: token start states, the character classes of all transitions
+     * and the keyword indices of all modes.
+     */
+    void buildDerivedTables() {
+        getTokenStartStatesByMode();
+        getCompiledAtn();
+        ATN atn = getAtn();
+        for (ATNState state : atn.states) {
+            if (state == null) {
+                continue;
+            }
+            for (Transition trans : state.getTransitions()) {
+                if (!trans.isEpsilon() && !(trans instanceof AtomTransition)) {
+                    getCharacterClass(trans);
+                }
+            }
+        }
+        for (int lexerMode = 0; lexerMode < atn.modeToStartState.size(); ++lexerMode) {
+            for (CasePreference casePreference : CasePreference.values()) {
+                getKeywordIndex(lexerMode, casePreference);
+            }
+        }
+    }
+
+    /**
+     * The token types this lexer can emit: those of its rules, those set by type actions, and EOF. Returns null when
+     * that cannot be told from the ATN, i.e. when the lexer runs custom actions or overrides how tokens are emitted.
+     */
+    public IntervalSet findProducibleTokenTypes() {
+        Lexer lexer = getCachedLexer();
+        if (overridesTokenEmission(lexer.getClass())) {
+            return null;
+        }
+        ATN atn = lexer.getATN();
+        IntervalSet result = IntervalSet.of(Token.EOF);
+        for (Map<Integer, List<ATNState>> startStatesByTokenType : getTokenStartStatesByMode()) {
+            for (Integer tokenType : startStatesByTokenType.keySet()) {
+                result.add(tokenType);
+            }
+        }
+        if (atn.lexerActions != null) {
+            for (LexerAction action : atn.lexerActions) {
+                if (action instanceof LexerCustomAction) {
+                    return null;
+                }
+                if (action instanceof LexerTypeAction) {
+                    result.add(((LexerTypeAction) action).getType());
+                }
+            }
+        }
+        return result;
+    }
+
+    public long estimateRetainedBytes() {
+        long result = GrammarEngine.estimateAtnBytes(getAtn()) + getCompiledAtn().estimateRetainedBytes();
+        for (Map<Integer, List<ATNState>> startStates : getTokenStartStatesByMode()) {
+            result += 64 * startStates.size();
+        }
+        for (CharacterClass characterClass : characterClasses.values()) {
+            result += 64 + characterClass.estimateRetainedBytes();
+        }
+        for (KeywordIndex keywordIndex : keywordIndices.values()) {
+            result += 64 + keywordIndex.estimateRetainedBytes();
+        }
+        for (PrefixDfa prefixDfa : prefixDfas.values()) {
+            result += 64 + prefixDfa.estimateRetainedBytes();
+        }
+        return result;
+    }
     
     private Lexer getCachedLexer() {
         if (cachedLexer == null) {
@@ -56,30 +213,90 @@ public class LexerWrapper {
         return cachedLexer;
     }
     
+    private List<Map<Integer, List<ATNState>>> getTokenStartStatesByMode() {
+        if (tokenStartStatesByMode == null) {
+            tokenStartStatesByMode = computeTokenStartStatesByMode();
+        }
+        return tokenStartStatesByMode;
+    }
+
+    /**
+     * Each mode's start state has an epsilon transition to the start state of every non-fragment rule in that mode.
+     */
+    private List<Map<Integer, List<ATNState>>> computeTokenStartStatesByMode() {
+        ATN atn = getAtn();
+        List<Map<Integer, List<ATNState>>> result = new ArrayList<>();
+        for (TokensStartState modeStartState : atn.modeToStartState) {
+            Map<Integer, List<ATNState>> startStatesByTokenType = new HashMap<>();
+            for (Transition trans : modeStartState.getTransitions()) {
+                if (trans.target instanceof RuleStartState) {
+                    int tokenType = atn.ruleToTokenType[trans.target.ruleIndex];
+                    startStatesByTokenType.computeIfAbsent(tokenType, t -> new ArrayList<>()).add(trans.target);
+                }
+            }
+            result.add(startStatesByTokenType);
+        }
+        return result;
+    }
+
+    /**
+     * The untokenized text starts at the first lexer error. Later errors only mark where the lexer resumed after
+     * skipping a character, so they do not move its start.
+     */
     private TokenizationResult tokenize(String input) {
         Lexer lexer = this.createLexer(input);
         lexer.removeErrorListeners();
-        final TokenizationResult result = new TokenizationResult();
-        ANTLRErrorListener newErrorListener = new BaseErrorListener() {
-            @Override
-            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
-                    int charPositionInLine, String msg, RecognitionException e) throws ParseCancellationException {
-                result.untokenizedText = input.substring(charPositionInLine); // intended side effect
-            }
-        };
-        lexer.addErrorListener(newErrorListener);
+        FirstErrorListener firstErrorListener = new FirstErrorListener();
+        lexer.addErrorListener(firstErrorListener);
+        TokenizationResult result = new TokenizationResult();
         result.tokens = lexer.getAllTokens();
+        if (firstErrorListener.startIndex < 0) {
+            result.lexerMode = lexer._mode;
+        } else {
+            // The lexer counts code points, not UTF-16 chars
+            result.untokenizedText = input.substring(input.offsetByCodePoints(0, firstErrorListener.startIndex));
+            result.lexerMode = firstErrorListener.lexerMode;
+        }
         return result;
     }
 
+    /**
+     * Remembers where the first lexer error started, and the lexer mode there.
+     */
+    private static class FirstErrorListener extends BaseErrorListener {
+        int startIndex = -1;
+        int lexerMode = Lexer.DEFAULT_MODE;
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                int charPositionInLine, String msg, RecognitionException e) throws ParseCancellationException {
+            if (startIndex < 0) {
+                Lexer lexer = (Lexer) recognizer;
+                startIndex = lexer._tokenStartCharIndex;
+                lexerMode = lexer._mode;
+            }
+        }
+    }
+
     private Lexer createLexer(CharStream input) {
         return this.lexerFactory.createLexer(input);
     }
 
-    private Lexer createLexer(String lexerInput) {
+    Lexer createLexer(String lexerInput) {
         return this.createLexer(toCharStream(lexerInput));
     }
 
+    private static boolean overridesTokenEmission(Class<?> lexerClass) {
+        for (Class<?> c = lexerClass; c != Lexer.class && c != LexerInterpreter.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (TOKEN_EMITTING_METHODS.contains(method.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private static CharStream toCharStream(String text) {
         CharStream inputStream;
         try {
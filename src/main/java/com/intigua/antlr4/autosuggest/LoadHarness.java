@@ -0,0 +1,256 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+
+/**
+ * Replays recorded editing sessions against one shared {@link GrammarEngine} from several threads, and reports
+ * throughput, latency percentiles, allocation and GC totals. Meant for comparing configurations and catching
+ * regressions under concurrent load, which microbenchmarks miss.
+ *
+ * A session is the sequence of editor texts after each keystroke, and each one is a completion request. In session
+ * files every line is one such text, with \n, \t and \\ escaped. Can be run from the command line:
+ * {@code LoadHarness <lexer class> <parser class> <threads> <iterations> <session file>...}.
+ */
+public class LoadHarness {
+    private final GrammarEngine grammarEngine;
+    private final List<List<String>> sessions;
+    private int threadCount = 1;
+    private int iterations = 1;
+    private int warmUpIterations = 1;
+
+    /**
+     * Measured totals of one run. Latencies are in nanoseconds.
+     */
+    public static class Report {
+        public final long completions;
+        public final long elapsedNanos;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long p999Nanos;
+        public final long maxNanos;
+        public final double meanNanos;
+        /**
+         * Bytes allocated by the replaying threads, or -1 if the JVM cannot measure it.
+         */
+        public final long allocatedBytes;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Report(LatencyHistogram latencies, long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.completions = latencies.getTotalCount();
+            this.elapsedNanos = elapsedNanos;
+            this.p50Nanos = latencies.getValueAtPercentile(50);
+            this.p99Nanos = latencies.getValueAtPercentile(99);
+            this.p999Nanos = latencies.getValueAtPercentile(99.9);
+            this.maxNanos = latencies.getMax();
+            this.meanNanos = latencies.getMean();
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        public double getThroughputPerSecond() {
+            return elapsedNanos == 0 ? 0 : completions * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "completions=%d throughput=%.1f/s p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms mean=%.3fms "
+                            + "allocated=%dMB gc=%d (%dms)",
+                    completions, getThroughputPerSecond(), p50Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6,
+                    maxNanos / 1e6, meanNanos / 1e6, allocatedBytes < 0 ? -1 : allocatedBytes >> 20, gcCount,
+                    gcMillis);
+        }
+    }
+
+    public LoadHarness(GrammarEngine grammarEngine, List<List<String>> sessions) {
+        this.grammarEngine = grammarEngine;
+        this.sessions = sessions;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * The number of times each thread replays all sessions.
+     */
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * The number of unmeasured replays of all sessions before measuring, so caches and the JIT are warm.
+     */
+    public void setWarmUpIterations(int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    public Report run() {
+        for (int i = 0; i < warmUpIterations; ++i) {
+            replaySessions(0, new LatencyHistogram());
+        }
+        long gcCountBefore = getGcCount();
+        long gcMillisBefore = getGcMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            long start = System.nanoTime();
+            List<Future<Measurement>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; ++t) {
+                int firstSession = t;
+                futures.add(executor.submit(() -> measureThread(firstSession)));
+            }
+            LatencyHistogram latencies = new LatencyHistogram();
+            long allocatedBytes = 0;
+            for (Future<Measurement> future : futures) {
+                Measurement measurement = getResult(future);
+                latencies.add(measurement.latencies);
+                allocatedBytes = (allocatedBytes < 0 || measurement.allocatedBytes < 0) ? -1
+                        : allocatedBytes + measurement.allocatedBytes;
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Report(latencies, elapsed, allocatedBytes, getGcCount() - gcCountBefore,
+                    getGcMillis() - gcMillisBefore);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Measurement {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long allocatedBytes;
+    }
+
+    private Measurement measureThread(int firstSession) {
+        Measurement measurement = new Measurement();
+        long allocatedBefore = getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; ++i) {
+            replaySessions(firstSession, measurement.latencies);
+        }
+        long allocatedAfter = getCurrentThreadAllocatedBytes();
+        measurement.allocatedBytes = (allocatedBefore < 0) ? -1 : allocatedAfter - allocatedBefore;
+        return measurement;
+    }
+
+    /**
+     * Threads start from different sessions, so they do not all request the same completions at the same time.
+     */
+    private void replaySessions(int firstSession, LatencyHistogram latencies) {
+        for (int s = 0; s < sessions.size(); ++s) {
+            for (String text : sessions.get((firstSession + s) % sessions.size())) {
+                long start = System.nanoTime();
+                new AutoSuggester(grammarEngine, text).suggestCompletions();
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static Measurement getResult(Future<Measurement> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for load threads", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load thread failed", e.getCause());
+        }
+    }
+
+    private static long getCurrentThreadAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getGcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gcBean.getCollectionCount());
+        }
+        return result;
+    }
+
+    private static long getGcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gcBean.getCollectionTime());
+        }
+        return result;
+    }
+
+    /**
+     * Reads a session file: one editor text per line, with \n, \t and \\ escaped.
+     */
+    public static List<String> readSession(List<String> lines) {
+        List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            result.add(unescape(line));
+        }
+        return result;
+    }
+
+    static String unescape(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c != '\\' || i + 1 == line.length()) {
+                result.append(c);
+                continue;
+            }
+            char escaped = line.charAt(++i);
+            switch (escaped) {
+            case 'n':
+                result.append('\n');
+                break;
+            case 't':
+                result.append('\t');
+                break;
+            default:
+                result.append(escaped);
+            }
+        }
+        return result.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length < 5) {
+            System.err.println(
+                    "Usage: LoadHarness <lexer class> <parser class> <threads> <iterations> <session file>...");
+            System.exit(2);
+        }
+        Class<? extends Lexer> lexerClass = (Class<? extends Lexer>) Class.forName(args[0]);
+        Class<? extends Parser> parserClass = (Class<? extends Parser>) Class.forName(args[1]);
+        List<List<String>> sessions = new ArrayList<>();
+        for (int i = 4; i < args.length; ++i) {
+            sessions.add(readSession(Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8)));
+        }
+        GrammarEngine engine = new GrammarEngine(new ReflectionLexerAndParserFactory(lexerClass, parserClass));
+        LoadHarness harness = new LoadHarness(engine, sessions);
+        harness.setThreadCount(Integer.parseInt(args[2]));
+        harness.setIterations(Integer.parseInt(args[3]));
+        System.out.println(harness.run());
+    }
+}
@@ -0,0 +1,44 @@
+package com.intigua.antlr4.autosuggest;
+
+import org.antlr.v4.runtime.atn.ATNState;
+
+/**
+ * A parser ATN state together with the rule invocation stack it was reached with.
+ */
+class ParserConfig {
+    private final ATNState state;
+    private final ParserStack stack;
+
+    public ParserConfig(ATNState state, ParserStack stack) {
+        this.state = state;
+        this.stack = stack;
+    }
+
+    public ATNState getState() {
+        return state;
+    }
+
+    public ParserStack getStack() {
+        return stack;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * state.hashCode() + System.identityHashCode(stack);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        ParserConfig other = (ParserConfig) obj;
+        return state.equals(other.state) && stack == other.stack; // stacks are shared, so identity is enough
+    }
+
+    @Override
+    public String toString() {
+        return state + " " + stack;
+    }
+}
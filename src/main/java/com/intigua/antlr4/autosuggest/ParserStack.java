@@ -0,0 +1,101 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.atn.ATNState;
+
+/**
+ * Immutable rule invocation stack used while walking the parser ATN. Each frame holds the state to return to when
+ * the invoked rule ends.
+ *
+ * Frames are shared: pushing the same return state onto the same stack always yields the same instance, so all
+ * configurations with a common call prefix point to a single chain of frames, and stacks can be compared by identity.
+ */
+class ParserStack {
+    private final ParserStack parent;
+    private final ATNState returnState;
+    private Map<ATNState, ParserStack> children;
+
+    private ParserStack(ParserStack parent, ATNState returnState) {
+        this.parent = parent;
+        this.returnState = returnState;
+    }
+
+    /**
+     * Creates the bottom of a stack, meaning the invoking context is unknown.
+     */
+    public static ParserStack empty() {
+        return new ParserStack(null, null);
+    }
+
+    public boolean isEmpty() {
+        return parent == null;
+    }
+
+    public ParserStack push(ATNState returnState) {
+        if (children == null) {
+            children = new HashMap<>();
+        }
+        ParserStack child = children.get(returnState);
+        if (child == null) {
+            child = new ParserStack(this, returnState);
+            children.put(returnState, child);
+        }
+        return child;
+    }
+
+    public ParserStack pop() {
+        if (isEmpty()) {
+            throw new IllegalStateException("Cannot pop an empty stack");
+        }
+        return parent;
+    }
+
+    public ATNState getReturnState() {
+        return returnState;
+    }
+
+    /**
+     * Whether one of the top frames returns to the given state. Used to detect rules that invoke themselves without
+     * consuming any token.
+     */
+    public boolean hasReturnStateInTopFrames(ATNState state, int framesToCheck) {
+        ParserStack frame = this;
+        for (int i = 0; i < framesToCheck && !frame.isEmpty(); ++i) {
+            if (frame.returnState == state) {
+                return true;
+            }
+            frame = frame.parent;
+        }
+        return false;
+    }
+
+    /**
+     * The rules of the return states, innermost first: the rules the current rule was invoked from, as far as known.
+     */
+    public int[] getInvokingRuleIndices() {
+        int size = 0;
+        for (ParserStack frame = this; !frame.isEmpty(); frame = frame.parent) {
+            ++size;
+        }
+        int[] result = new int[size];
+        int i = 0;
+        for (ParserStack frame = this; !frame.isEmpty(); frame = frame.parent) {
+            result[i++] = frame.returnState.ruleIndex;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("[");
+        for (ParserStack frame = this; !frame.isEmpty(); frame = frame.parent) {
+            if (frame != this) {
+                result.append(' ');
+            }
+            result.append(frame.returnState.stateNumber);
+        }
+        return result.append(']').toString();
+    }
+}
@@ -0,0 +1,29 @@
+package com.intigua.antlr4.autosuggest;
+
+import org.antlr.v4.runtime.atn.ATNState;
+
+/**
+ * Observes the walk through the parser ATN, e.g. for profiling which states a grammar spends its time in.
+ */
+interface ParserWalkListener {
+
+    /**
+     * The walk entered a state while the given number of input tokens had been consumed.
+     */
+    void stateEntered(ATNState parserState, int tokenListIndex);
+
+    /**
+     * The walk is done with a state previously entered, and is backtracking.
+     */
+    void stateExited(ATNState parserState);
+
+    /**
+     * The walk reached a state it is already exploring without consuming a token in between, and cut the loop.
+     */
+    void loopCut(ATNState parserState);
+
+    /**
+     * All input tokens were consumed, and the given state is one where suggestions are made.
+     */
+    void endOfInputReached(ATNState parserState);
+}
@@ -1,34 +1,54 @@
 package com.intigua.antlr4.autosuggest;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.Vocabulary;
 import org.antlr.v4.runtime.atn.ATN;
 import org.antlr.v4.runtime.atn.ATNState;
 import org.antlr.v4.runtime.atn.AtomTransition;
 import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.misc.IntervalSet;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class ParserWrapper {
     private static final Logger logger = LoggerFactory.getLogger(ParserWrapper.class);
+    static final int MAX_CONTINUATION_LENGTH = 8;
     private final Vocabulary lexerVocabulary;
     
     private final ATN parserAtn;
     private final String[] parserRuleNames;
+    private final CompiledAtn compiledAtn;
+    private final PruningReport pruningReport;
+    private final Map<Integer, int[]> continuationsByStateNumber = new ConcurrentHashMap<>();
 
-    public ParserWrapper(ParserFactory parserFactory, Vocabulary lexerVocabulary) {
+    /**
+     * @param producibleTokenTypes
+     *            the token types the lexer can emit, used to prune the compiled ATN, or null if unknown
+     */
+    public ParserWrapper(ParserFactory parserFactory, Vocabulary lexerVocabulary, IntervalSet producibleTokenTypes) {
         this.lexerVocabulary = lexerVocabulary;
         
         Parser parserForAtnOnly = parserFactory.createParser(null);
         this.parserAtn = parserForAtnOnly.getATN();
         this.parserRuleNames = parserForAtnOnly.getRuleNames();
+        AtnPruner pruner = new AtnPruner(new CompiledAtn(parserAtn), producibleTokenTypes);
+        this.compiledAtn = pruner.getPrunedAtn();
+        this.pruningReport = pruner.getReport();
         logger.debug("Parser rule names: " + StringUtils.join(parserForAtnOnly.getRuleNames(), ", "));
+        logger.debug("Parser ATN pruning: " + pruningReport);
     }
     
     public String toString(ATNState parserState) {
@@ -53,4 +73,134 @@ class ParserWrapper {
     public ATNState getAtnState(int stateNumber) {
         return parserAtn.states.get(stateNumber);
     }
+
+    public ATN getAtn() {
+        return parserAtn;
+    }
+
+    public String[] getRuleNames() {
+        return parserRuleNames;
+    }
+
+    CompiledAtn getCompiledAtn() {
+        return compiledAtn;
+    }
+
+    PruningReport getPruningReport() {
+        return pruningReport;
+    }
+
+    /**
+     * The token types that must follow once the given state is reached, as far as the rules entered from it decide:
+     * the continuation ends where more than one token could come next, or where the state's own rule could end,
+     * since what follows then depends on the caller. Follows the pruned compiled ATN, so edges no input can take do
+     * not count as choices. Computed once per state, up to {@link #MAX_CONTINUATION_LENGTH} tokens.
+     */
+    public int[] getDeterministicContinuation(int stateNumber) {
+        return continuationsByStateNumber.computeIfAbsent(stateNumber, this::computeDeterministicContinuation);
+    }
+
+    /**
+     * Computes the continuations of all states entered by consuming a token, which are the ones looked up.
+     */
+    void buildDerivedTables() {
+        for (int edge = 0; edge < compiledAtn.getEdgeCount(); ++edge) {
+            byte kind = compiledAtn.kind(edge);
+            if (kind == CompiledAtn.ATOM || kind == CompiledAtn.SET) {
+                getDeterministicContinuation(compiledAtn.target(edge));
+            }
+        }
+    }
+
+    public long estimateRetainedBytes() {
+        long result = GrammarEngine.estimateAtnBytes(parserAtn) + compiledAtn.estimateRetainedBytes();
+        for (int[] continuation : continuationsByStateNumber.values()) {
+            result += 64 + 4L * continuation.length;
+        }
+        return result;
+    }
+
+    private int[] computeDeterministicContinuation(int stateNumber) {
+        int[] result = new int[MAX_CONTINUATION_LENGTH];
+        int length = 0;
+        ParserConfig config = new ParserConfig(compiledAtn.getState(stateNumber), ParserStack.empty());
+        while (length < MAX_CONTINUATION_LENGTH) {
+            ParserConfig next = findOnlyTokenEdgeTarget(config, result, length);
+            if (next == null) {
+                break;
+            }
+            ++length;
+            config = next;
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * If a single edge consuming a single token type is reachable from the configuration, stores the token type at
+     * result[index] and returns the configuration it leads to. Returns null otherwise.
+     */
+    private ParserConfig findOnlyTokenEdgeTarget(ParserConfig config, int[] result, int index) {
+        int onlyEdge = -1;
+        ParserStack onlyEdgeStack = null;
+        Set<ParserConfig> visitedConfigs = new HashSet<>();
+        Deque<ParserConfig> pending = new ArrayDeque<>();
+        pending.push(config);
+        while (!pending.isEmpty()) {
+            ParserConfig current = pending.pop();
+            if (!visitedConfigs.add(current)) {
+                continue;
+            }
+            ParserStack stack = current.getStack();
+            int stateNumber = current.getState().stateNumber;
+            if (compiledAtn.isRuleStop(stateNumber)) {
+                if (stack.isEmpty()) {
+                    return null; // What follows depends on the caller
+                }
+                pending.push(new ParserConfig(stack.getReturnState(), stack.pop()));
+                continue;
+            }
+            for (int edge = compiledAtn.firstEdge(stateNumber); edge < compiledAtn.endEdge(stateNumber); ++edge) {
+                ATNState target = compiledAtn.getState(compiledAtn.target(edge));
+                switch (compiledAtn.kind(edge)) {
+                case CompiledAtn.RULE:
+                    ATNState followState = compiledAtn.getState(compiledAtn.label(edge));
+                    if (stack.hasReturnStateInTopFrames(followState, Integer.MAX_VALUE)) {
+                        return null; // Recursion
+                    }
+                    pending.push(new ParserConfig(target, stack.push(followState)));
+                    break;
+                case CompiledAtn.EPSILON:
+                    pending.push(new ParserConfig(target, stack));
+                    break;
+                case CompiledAtn.ATOM:
+                case CompiledAtn.SET:
+                    if (onlyEdge >= 0 || singleTokenType(edge) == Token.INVALID_TYPE) {
+                        return null;
+                    }
+                    onlyEdge = edge;
+                    onlyEdgeStack = stack;
+                    break;
+                default:
+                    return null; // Wildcard
+                }
+            }
+        }
+        if (onlyEdge < 0) {
+            return null;
+        }
+        result[index] = singleTokenType(onlyEdge);
+        return new ParserConfig(compiledAtn.getState(compiledAtn.target(onlyEdge)), onlyEdgeStack);
+    }
+
+    /**
+     * The token type a token edge matches if it matches a single one other than EOF, else {@link Token#INVALID_TYPE}.
+     */
+    private int singleTokenType(int edge) {
+        if (compiledAtn.kind(edge) == CompiledAtn.ATOM) {
+            int label = compiledAtn.label(edge);
+            return (label == Token.EOF) ? Token.INVALID_TYPE : label;
+        }
+        IntervalSet set = compiledAtn.getSet(compiledAtn.label(edge));
+        return (set.size() != 1 || set.contains(Token.EOF)) ? Token.INVALID_TYPE : set.getMinElement();
+    }
 }
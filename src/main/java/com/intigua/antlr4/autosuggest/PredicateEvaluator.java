@@ -0,0 +1,41 @@
+package com.intigua.antlr4.autosuggest;
+
+/**
+ * Decides the semantic predicates of the grammar, such as {@code {isEnabled("merge")}?}, while walking the parser ATN,
+ * so alternatives they disable are neither followed nor suggested. Register with
+ * {@link AutoSuggester#setPredicateEvaluator(PredicateEvaluator)}.
+ *
+ * Each predicate is evaluated at most once per suggestion request for each position in the input and rule invocation
+ * stack it is reached with. Precedence predicates of left-recursive rules are evaluated by the suggester itself.
+ */
+public interface PredicateEvaluator {
+
+    /**
+     * Holds every predicate, which is how predicates are treated without an evaluator.
+     */
+    PredicateEvaluator ALL_TRUE = (ruleIndex, predicateIndex) -> true;
+
+    /**
+     * Returns whether the predicate holds.
+     *
+     * @param ruleIndex
+     *            the parser rule containing the predicate
+     * @param predicateIndex
+     *            the predicate's index, as passed to the generated parser's sempred method
+     */
+    boolean evaluate(int ruleIndex, int predicateIndex);
+
+    /**
+     * Returns whether the predicate holds where it was reached. By default, the position is ignored; override this
+     * method for predicates that depend on it.
+     *
+     * @param invokingRuleIndices
+     *            the rules the predicate's rule was invoked from, innermost first, as far as the suggester knows them:
+     *            when suggesting at the start of a rule, its callers are unknown
+     * @param tokenIndex
+     *            the number of input tokens before the predicate
+     */
+    default boolean evaluate(int ruleIndex, int predicateIndex, int[] invokingRuleIndices, int tokenIndex) {
+        return evaluate(ruleIndex, predicateIndex);
+    }
+}
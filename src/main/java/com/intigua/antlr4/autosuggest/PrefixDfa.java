@@ -0,0 +1,111 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the lexer states a token rule is in after matching a typed prefix, by simulating the rule's ATN one code
+ * point at a time. Each DFA state is the set of ATN states entered by matching the code points so far, before
+ * following epsilon transitions, and its transitions are computed on first use and kept, so a prefix typed again, or
+ * extended by a character, costs one lookup per code point. Lookups do not lock: states and transitions are kept in
+ * concurrent maps.
+ *
+ * Code points are matched the way {@link TokenSuggester} matches typed text: atoms exactly, and sets only in the
+ * cases the {@link CasePreference} allows.
+ */
+final class PrefixDfa {
+    private final LexerWrapper lexerWrapper;
+    private final CompiledAtn atn;
+    private final CasePreference casePreference;
+    private final DfaState startState;
+    private final Map<BitSet, DfaState> statesByAtnStates = new ConcurrentHashMap<>();
+
+    private static final class DfaState {
+        final BitSet atnStates; // Never modified once interned
+        final Map<Integer, DfaState> transitions = new ConcurrentHashMap<>();
+
+        DfaState(BitSet atnStates) {
+            this.atnStates = atnStates;
+        }
+    }
+
+    PrefixDfa(LexerWrapper lexerWrapper, int ruleStartState, CasePreference casePreference) {
+        this.lexerWrapper = lexerWrapper;
+        this.atn = lexerWrapper.getCompiledAtn();
+        this.casePreference = casePreference;
+        BitSet atnStates = new BitSet();
+        atnStates.set(ruleStartState);
+        this.startState = intern(atnStates);
+    }
+
+    /**
+     * The lexer states reached by matching the whole prefix, from which the rest of the token can be enumerated.
+     * Empty if no token of the rule starts with the prefix.
+     */
+    BitSet statesAfter(String prefix) {
+        DfaState state = startState;
+        for (int i = 0; i < prefix.length() && !state.atnStates.isEmpty(); i += Character.charCount(
+                prefix.codePointAt(i))) {
+            int codePoint = prefix.codePointAt(i);
+            DfaState next = state.transitions.get(codePoint);
+            if (next == null) {
+                // Threads racing on a new transition compute the same state, and all use the first one stored
+                DfaState computed = intern(move(state.atnStates, codePoint));
+                next = state.transitions.putIfAbsent(codePoint, computed);
+                next = (next == null) ? computed : next;
+            }
+            state = next;
+        }
+        return (BitSet) state.atnStates.clone();
+    }
+
+    private DfaState intern(BitSet atnStates) {
+        return statesByAtnStates.computeIfAbsent(atnStates, DfaState::new);
+    }
+
+    /**
+     * The states entered by matching the code point from the epsilon closure of the given states. Like
+     * {@link TokenSuggester}, rule transitions into fragments are followed as epsilon transitions.
+     */
+    private BitSet move(BitSet atnStates, int codePoint) {
+        BitSet result = new BitSet();
+        BitSet closure = new BitSet();
+        Deque<Integer> pending = new ArrayDeque<>();
+        atnStates.stream().forEach(pending::push);
+        while (!pending.isEmpty()) {
+            int s = pending.pop();
+            if (closure.get(s)) {
+                continue;
+            }
+            closure.set(s);
+            for (int edge = atn.firstEdge(s); edge < atn.endEdge(s); ++edge) {
+                byte kind = atn.kind(edge);
+                if (kind == CompiledAtn.EPSILON || kind == CompiledAtn.RULE) {
+                    pending.push(atn.target(edge));
+                } else if (matches(edge, kind, codePoint)) {
+                    result.set(atn.target(edge));
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean matches(int edge, byte kind, int codePoint) {
+        if (kind == CompiledAtn.ATOM) {
+            return atn.label(edge) == codePoint;
+        }
+        CharacterClass characterClass = lexerWrapper.getCharacterClass(atn.getTransition(edge));
+        return characterClass.contains(codePoint) && !characterClass.isIgnoredCase(codePoint, casePreference);
+    }
+
+    long estimateRetainedBytes() {
+        long result = 64;
+        for (DfaState state : statesByAtnStates.values()) {
+            result += 96 + state.atnStates.size() / 8 + 48L * state.transitions.size();
+        }
+        return result;
+    }
+}
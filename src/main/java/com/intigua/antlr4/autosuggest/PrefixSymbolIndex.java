@@ -0,0 +1,270 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable, compact symbol dictionary with prefix lookup, meant for millions of symbols.
+ *
+ * Symbols are stored UTF-8 encoded, sorted and packed into a single byte array with an offsets array, so the heap
+ * cost is close to the text size plus a few bytes per symbol, with no per-symbol objects. A lookup binary-searches
+ * the range of symbols with the prefix. When symbols have weights, the heaviest symbols in that range are found with
+ * a segment tree over the heaviest symbol of each block of symbols, so the top K cost O(K log n) whatever the size of
+ * the range, and the tree adds less than a byte per symbol.
+ */
+public class PrefixSymbolIndex implements SymbolProvider {
+    private static final int BLOCK_SIZE = 64;
+
+    private final byte[] packedSymbols;
+    private final int[] offsets; // Symbol i is packedSymbols[offsets[i]..offsets[i + 1])
+    private final int[] weights; // null when unweighted, results are then in symbol order
+    private final int[] blockTree; // Heaviest symbol of each block at blockCount + block, of nodes 2i and 2i + 1 at i
+
+    private PrefixSymbolIndex(byte[] packedSymbols, int[] offsets, int[] weights) {
+        this.packedSymbols = packedSymbols;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.blockTree = (weights == null) ? null : computeBlockTree(weights);
+    }
+
+    public static PrefixSymbolIndex of(Collection<String> symbols) {
+        Builder builder = new Builder();
+        for (String symbol : symbols) {
+            builder.add(symbol, 0);
+        }
+        return builder.build(false);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Collects symbols with weights; heavier symbols are returned first.
+     */
+    public static class Builder {
+        private final List<byte[]> symbols = new ArrayList<>();
+        private final List<Integer> weights = new ArrayList<>();
+
+        public Builder add(String symbol, int weight) {
+            symbols.add(symbol.getBytes(StandardCharsets.UTF_8));
+            weights.add(weight);
+            return this;
+        }
+
+        public PrefixSymbolIndex build() {
+            return build(true);
+        }
+
+        private PrefixSymbolIndex build(boolean weighted) {
+            Integer[] order = new Integer[symbols.size()];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparing(symbols::get, PrefixSymbolIndex::compareUnsigned));
+            int totalBytes = symbols.stream().mapToInt(s -> s.length).sum();
+            byte[] packedSymbols = new byte[totalBytes];
+            int[] offsets = new int[order.length + 1];
+            int[] sortedWeights = weighted ? new int[order.length] : null;
+            int count = 0;
+            for (int i = 0; i < order.length; ++i) {
+                byte[] symbol = symbols.get(order[i]);
+                if (count > 0 && compareUnsigned(symbol, 0, symbol.length, packedSymbols, offsets[count - 1],
+                        offsets[count]) == 0) {
+                    if (weighted) { // Duplicate, keep the heaviest
+                        sortedWeights[count - 1] = Math.max(sortedWeights[count - 1], weights.get(order[i]));
+                    }
+                    continue;
+                }
+                System.arraycopy(symbol, 0, packedSymbols, offsets[count], symbol.length);
+                if (weighted) {
+                    sortedWeights[count] = weights.get(order[i]);
+                }
+                offsets[count + 1] = offsets[count] + symbol.length;
+                ++count;
+            }
+            return new PrefixSymbolIndex(Arrays.copyOf(packedSymbols, offsets[count]), Arrays.copyOf(offsets, count + 1),
+                    weighted ? Arrays.copyOf(sortedWeights, count) : null);
+        }
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public long estimateRetainedBytes() {
+        long result = 64 + packedSymbols.length + 4L * offsets.length;
+        if (weights != null) {
+            result += 4L * (weights.length + blockTree.length);
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> suggestSymbols(String prefix, int maxResults) {
+        byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        int from = firstIndexNotBefore(prefixBytes);
+        int to = firstIndexAfterPrefix(prefixBytes, from);
+        List<String> result = new ArrayList<>();
+        if (weights == null) {
+            for (int i = from; i < to && result.size() < maxResults; ++i) {
+                result.add(symbolAt(i));
+            }
+        } else {
+            for (int i : heaviestInRange(from, to, maxResults)) {
+                result.add(symbolAt(i));
+            }
+        }
+        return result;
+    }
+
+    private String symbolAt(int index) {
+        return new String(packedSymbols, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+    }
+
+    private int firstIndexNotBefore(byte[] prefix) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareUnsigned(packedSymbols, offsets[middle], offsets[middle + 1], prefix, 0, prefix.length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstIndexAfterPrefix(byte[] prefix, int from) {
+        int low = from;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (startsWith(middle, prefix)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean startsWith(int index, byte[] prefix) {
+        int start = offsets[index];
+        if (offsets[index + 1] - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (packedSymbols[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Best-first search over subranges: the heaviest symbol of a range comes before those of both its parts left and
+     * right of it, so each result costs one heaviest symbol query and two queue insertions. Ties are broken by symbol
+     * order.
+     */
+    private List<Integer> heaviestInRange(int from, int to, int maxResults) {
+        // Candidates are [heaviest index, range start, range end]
+        PriorityQueue<int[]> candidates = new PriorityQueue<>(
+                (a, b) -> (a[0] == b[0]) ? 0 : isHeavier(a[0], b[0]) ? -1 : 1);
+        List<Integer> result = new ArrayList<>();
+        if (from < to) {
+            candidates.add(new int[] { heaviest(from, to), from, to });
+        }
+        while (result.size() < maxResults && !candidates.isEmpty()) {
+            int[] candidate = candidates.poll();
+            int index = candidate[0];
+            result.add(index);
+            if (candidate[1] < index) {
+                candidates.add(new int[] { heaviest(candidate[1], index), candidate[1], index });
+            }
+            if (index + 1 < candidate[2]) {
+                candidates.add(new int[] { heaviest(index + 1, candidate[2]), index + 1, candidate[2] });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The heaviest symbol in [from, to): whole blocks are looked up in the tree, and the symbols of partially covered
+     * blocks at either end are scanned.
+     */
+    private int heaviest(int from, int to) {
+        int firstWholeBlock = (from + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int endWholeBlock = to / BLOCK_SIZE;
+        if (firstWholeBlock >= endWholeBlock) {
+            return heaviestByScan(from, to, from);
+        }
+        int result = heaviestByScan(from, firstWholeBlock * BLOCK_SIZE, from);
+        result = heaviestByScan(endWholeBlock * BLOCK_SIZE, to, result);
+        int blockCount = blockTree.length / 2;
+        for (int low = firstWholeBlock + blockCount, high = endWholeBlock + blockCount; low < high; low >>= 1,
+                high >>= 1) {
+            if ((low & 1) != 0) {
+                result = heavier(result, blockTree[low++]);
+            }
+            if ((high & 1) != 0) {
+                result = heavier(result, blockTree[--high]);
+            }
+        }
+        return result;
+    }
+
+    private int heaviestByScan(int from, int to, int heaviestSoFar) {
+        int result = heaviestSoFar;
+        for (int i = from; i < to; ++i) {
+            result = heavier(result, i);
+        }
+        return result;
+    }
+
+    private int heavier(int a, int b) {
+        return isHeavier(a, b) ? a : b;
+    }
+
+    private boolean isHeavier(int a, int b) {
+        return weights[a] > weights[b] || (weights[a] == weights[b] && a < b);
+    }
+
+    private int[] computeBlockTree(int[] weights) {
+        int blockCount = (weights.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] result = new int[2 * blockCount];
+        for (int block = 0; block < blockCount; ++block) {
+            int blockStart = block * BLOCK_SIZE;
+            result[blockCount + block] = heaviestByScan(blockStart, Math.min(blockStart + BLOCK_SIZE, weights.length),
+                    blockStart);
+        }
+        for (int node = blockCount - 1; node >= 1; --node) {
+            result[node] = heavier(result[2 * node], result[2 * node + 1]);
+        }
+        return result;
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        return compareUnsigned(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * Byte order of UTF-8 encodings is code point order.
+     */
+    private static int compareUnsigned(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int length = Math.min(aTo - aFrom, bTo - bFrom);
+        for (int i = 0; i < length; ++i) {
+            int diff = (a[aFrom + i] & 0xff) - (b[bFrom + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (aTo - aFrom) - (bTo - bFrom);
+    }
+}
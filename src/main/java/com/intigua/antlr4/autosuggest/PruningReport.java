@@ -0,0 +1,84 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What the static analysis done when building a {@link GrammarEngine} removed from the parser ATN, so the walk never
+ * explores it. See {@link GrammarEngine#getPruningReport()}.
+ */
+public class PruningReport {
+    private final int stateCount;
+    private final int edgeCount;
+    private final List<Integer> unproductiveStates;
+    private final int removedEdgeCount;
+    private final int narrowedSetCount;
+    private final Set<Integer> unproducibleTokenTypes;
+    private final boolean vocabularyKnown;
+
+    PruningReport(int stateCount, int edgeCount, List<Integer> unproductiveStates, int removedEdgeCount,
+            int narrowedSetCount, Set<Integer> unproducibleTokenTypes, boolean vocabularyKnown) {
+        this.stateCount = stateCount;
+        this.edgeCount = edgeCount;
+        this.unproductiveStates = Collections.unmodifiableList(unproductiveStates);
+        this.removedEdgeCount = removedEdgeCount;
+        this.narrowedSetCount = narrowedSetCount;
+        this.unproducibleTokenTypes = Collections.unmodifiableSet(unproducibleTokenTypes);
+        this.vocabularyKnown = vocabularyKnown;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * States from which the end of their rule cannot be reached, e.g. because every path needs a token the lexer
+     * never emits, or invokes a rule that never ends.
+     */
+    public List<Integer> getUnproductiveStates() {
+        return unproductiveStates;
+    }
+
+    /**
+     * Transitions removed: those consuming only tokens the lexer never emits, and those leading to unproductive
+     * states.
+     */
+    public int getRemovedEdgeCount() {
+        return removedEdgeCount;
+    }
+
+    /**
+     * Set transitions kept, but without the token types the lexer never emits.
+     */
+    public int getNarrowedSetCount() {
+        return narrowedSetCount;
+    }
+
+    /**
+     * Token types the parser expects somewhere but the lexer never emits, such as ones only declared in a tokens
+     * section.
+     */
+    public Set<Integer> getUnproducibleTokenTypes() {
+        return unproducibleTokenTypes;
+    }
+
+    /**
+     * Whether the token types the lexer emits could be told from its ATN. When they cannot, e.g. because the lexer
+     * emits tokens from custom code, no token type is considered unproducible.
+     */
+    public boolean isVocabularyKnown() {
+        return vocabularyKnown;
+    }
+
+    @Override
+    public String toString() {
+        return "states=" + stateCount + " unproductiveStates=" + unproductiveStates.size() + " edges=" + edgeCount
+                + " removedEdges=" + removedEdgeCount + " narrowedSets=" + narrowedSetCount
+                + " unproducibleTokenTypes=" + (vocabularyKnown ? unproducibleTokenTypes : "unknown");
+    }
+}
@@ -0,0 +1,102 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.LexerInterpreter;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserInterpreter;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNDeserializer;
+import org.antlr.v4.runtime.atn.ATNType;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+/**
+ * Creates interpreters for a grammar given as serialized lexer and parser ATNs, so grammars can be loaded and
+ * replaced at runtime without generating and compiling lexer and parser classes. The serialized form is the one
+ * generated recognizers keep in {@code _serializedATN}, also produced by
+ * {@link org.antlr.v4.runtime.atn.ATNSerializer#getSerializedAsString}.
+ *
+ * The ATNs are deserialized once, when the factory is created, and shared by all the interpreters it creates, along
+ * with the DFAs their simulators build up, so a lexer or parser benefits from the predictions of earlier ones, e.g.
+ * those made by {@link GrammarEngine#warmUp(int)}.
+ */
+public class SerializedAtnLexerAndParserFactory implements LexerAndParserFactory {
+    private final String grammarName;
+    private final Vocabulary vocabulary;
+    private final ATN lexerAtn;
+    private final List<String> lexerRuleNames;
+    private final List<String> channelNames;
+    private final List<String> modeNames;
+    private final ATN parserAtn;
+    private final List<String> parserRuleNames;
+    private final DFA[] lexerDecisionToDFA;
+    private final PredictionContextCache lexerContextCache = new PredictionContextCache();
+    private final DFA[] parserDecisionToDFA;
+    private final PredictionContextCache parserContextCache = new PredictionContextCache();
+
+    /**
+     * @param grammarName
+     *            used in error messages
+     * @param vocabulary
+     *            the token types shared by the lexer and parser
+     * @param channelNames
+     *            indexed by channel number, starting with DEFAULT_TOKEN_CHANNEL and HIDDEN
+     * @param modeNames
+     *            indexed by mode number, starting with DEFAULT_MODE
+     */
+    public SerializedAtnLexerAndParserFactory(String grammarName, Vocabulary vocabulary, String serializedLexerAtn,
+            String[] lexerRuleNames, String[] channelNames, String[] modeNames, String serializedParserAtn,
+            String[] parserRuleNames) {
+        this.grammarName = grammarName;
+        this.vocabulary = vocabulary;
+        this.lexerAtn = deserialize(serializedLexerAtn, ATNType.LEXER);
+        this.lexerRuleNames = Arrays.asList(lexerRuleNames.clone());
+        this.channelNames = Arrays.asList(channelNames.clone());
+        this.modeNames = Arrays.asList(modeNames.clone());
+        this.parserAtn = deserialize(serializedParserAtn, ATNType.PARSER);
+        this.parserRuleNames = Arrays.asList(parserRuleNames.clone());
+        this.lexerDecisionToDFA = createDecisionToDFA(lexerAtn);
+        this.parserDecisionToDFA = createDecisionToDFA(parserAtn);
+    }
+
+    @Override
+    public Lexer createLexer(CharStream input) {
+        LexerInterpreter lexer = new LexerInterpreter(grammarName, vocabulary, lexerRuleNames, channelNames, modeNames,
+                lexerAtn, input);
+        lexer.setInterpreter(new LexerATNSimulator(lexer, lexerAtn, lexerDecisionToDFA, lexerContextCache));
+        return lexer;
+    }
+
+    @Override
+    public Parser createParser(TokenStream tokenStream) {
+        ParserInterpreter parser = new ParserInterpreter(grammarName, vocabulary, parserRuleNames, parserAtn,
+                tokenStream);
+        parser.setInterpreter(new ParserATNSimulator(parser, parserAtn, parserDecisionToDFA, parserContextCache));
+        return parser;
+    }
+
+    private static DFA[] createDecisionToDFA(ATN atn) {
+        DFA[] result = new DFA[atn.getNumberOfDecisions()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = new DFA(atn.getDecisionState(i), i);
+        }
+        return result;
+    }
+
+    private static ATN deserialize(String serializedAtn, ATNType expectedType) {
+        ATN atn = new ATNDeserializer().deserialize(serializedAtn.toCharArray());
+        if (atn.grammarType != expectedType) {
+            throw new IllegalArgumentException(
+                    "Expected a serialized " + expectedType + " ATN, but got a " + atn.grammarType + " ATN");
+        }
+        return atn;
+    }
+}
@@ -0,0 +1,78 @@
+package com.intigua.antlr4.autosuggest;
+
+/**
+ * Receives the start and end of each suggestion request and of its phases, e.g. to emit them as Java Flight Recorder
+ * events so slow completions can be matched with GC and CPU activity. Set on the engine with
+ * {@link GrammarEngine#setTracer(SuggestionTracer)}; the default, {@link #NONE}, does nothing.
+ *
+ * Called on the request's thread, several times per request, so implementations should return quickly when they are
+ * not recording.
+ */
+public interface SuggestionTracer {
+
+    SuggestionTracer NONE = new SuggestionTracer() {
+        private final Request noRequest = (suggestionCount, incomplete) -> {
+        };
+        private final Span noSpan = () -> {
+        };
+
+        @Override
+        public Request requestStarted(int inputLength) {
+            return noRequest;
+        }
+
+        @Override
+        public Span phaseStarted(Phase phase) {
+            return noSpan;
+        }
+    };
+
+    enum Phase {
+        /**
+         * Lexing the input.
+         */
+        TOKENIZATION,
+        /**
+         * Matching the input tokens against the parser ATN, including any error recovery passes.
+         */
+        PARSER_WALK,
+        /**
+         * Spelling out the texts of the expected tokens with the lexer ATN.
+         */
+        LEXER_ENUMERATION,
+        /**
+         * Checking that the input with each suggestion appended lexes into one more token, of an expected type, and
+         * extending suggestions into phrases.
+         */
+        VALIDATION
+    }
+
+    /**
+     * A suggestion request in progress.
+     */
+    interface Request {
+        /**
+         * @param incomplete
+         *            whether the work limit cut the search short, so suggestions may be missing
+         */
+        void finish(int suggestionCount, boolean incomplete);
+    }
+
+    /**
+     * A phase of a request in progress.
+     */
+    interface Span {
+        void finish();
+    }
+
+    Request requestStarted(int inputLength);
+
+    /**
+     * Phases run within a request, in the order of {@link Phase}, and each covers all parser configurations reached at
+     * the end of the input together. Tokenization is skipped when the caller provided the tokens, and
+     * {@link AutoSuggester#suggestExpectedTokens()} stops after the parser walk. When symbol providers are consulted
+     * for a last token that may be a partially typed symbol, a second parser walk, over the input without that token,
+     * follows validation.
+     */
+    Span phaseStarted(Phase phase);
+}
@@ -0,0 +1,19 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.util.Collection;
+
+/**
+ * Supplies texts the grammar alone cannot, such as table or column names, for positions where a given token type
+ * or parser rule is expected. Register with {@link AutoSuggester#addSymbolProvider(int, SymbolProvider)} or
+ * {@link AutoSuggester#addSymbolProviderForRule(String, SymbolProvider)}.
+ *
+ * Called on every suggestion request, so implementations over large dictionaries should use an index such as
+ * {@link PrefixSymbolIndex} rather than scanning.
+ */
+public interface SymbolProvider {
+
+    /**
+     * Returns up to maxResults symbols starting with the given prefix.
+     */
+    Collection<String> suggestSymbols(String prefix, int maxResults);
+}
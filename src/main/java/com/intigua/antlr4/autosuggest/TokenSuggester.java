@@ -1,16 +1,19 @@
 package com.intigua.antlr4.autosuggest;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.List;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
+import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.atn.ATNState;
-import org.antlr.v4.runtime.atn.AtomTransition;
-import org.antlr.v4.runtime.atn.SetTransition;
-import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,61 +25,150 @@ class TokenSuggester {
 
     private final LexerWrapper lexerWrapper;
     private final CasePreference casePreference;
+    private final int lexerMode;
+    private final WorkCounters workCounters;
+    private final CompiledAtn atn;
 
     private final Set<String> suggestions = new TreeSet<String>();
-    private final List<Integer> visitedLexerStates = new ArrayList<>();
+    private final Map<ParserStack, BitSet> visitedLexerStates = new HashMap<>(); // States on the current path, per caller
     private String origPartialToken;
+    private int maxSuggestions = Integer.MAX_VALUE;
 
     public TokenSuggester(LexerWrapper lexerWrapper, String input) {
-        this(input, lexerWrapper, CasePreference.BOTH);
+        this(input, lexerWrapper, CasePreference.BOTH, Lexer.DEFAULT_MODE);
     }
 
-    public TokenSuggester(String origPartialToken, LexerWrapper lexerWrapper, CasePreference casePreference) {
+    public TokenSuggester(String origPartialToken, LexerWrapper lexerWrapper, CasePreference casePreference,
+            int lexerMode) {
+        this(origPartialToken, lexerWrapper, casePreference, lexerMode, new WorkCounters());
+    }
+
+    public TokenSuggester(String origPartialToken, LexerWrapper lexerWrapper, CasePreference casePreference,
+            int lexerMode, WorkCounters workCounters) {
         this.origPartialToken = origPartialToken;
         this.lexerWrapper = lexerWrapper;
         this.casePreference = casePreference;
+        this.lexerMode = lexerMode;
+        this.workCounters = workCounters;
+        this.atn = lexerWrapper.getCompiledAtn();
+    }
+
+    /**
+     * Stops enumerating once this many texts were found, for callers that only need to know whether there are more.
+     * Token rules built of character classes can spell out exponentially many texts.
+     */
+    void setMaxSuggestions(int maxSuggestions) {
+        this.maxSuggestions = maxSuggestions;
     }
 
     public Collection<String> suggest(Collection<Integer> nextParserTransitionLabels) {
         logTokensUsedForSuggestion(nextParserTransitionLabels);
         for (int nextParserTransitionLabel : nextParserTransitionLabels) {
-            int nextTokenRuleNumber = nextParserTransitionLabel - 1; // Count from 0 not from 1
-            ATNState lexerState = this.lexerWrapper.findStateByRuleNumber(nextTokenRuleNumber);
-            suggest("", lexerState, origPartialToken);
+            // Only rules of the mode the lexer ended in can start the next token
+            for (ATNState lexerState : this.lexerWrapper.findStartStatesByTokenType(lexerMode, nextParserTransitionLabel)) {
+                suggestAfterPartialToken(lexerState);
+            }
         }
         return suggestions;
 //        return suggestions.stream().filter(s -> this.lexerWrapper.isValidSuggestion(input, s)).collect(Collectors.toList());
     }
 
-    private void logTokensUsedForSuggestion(Collection<Integer> ruleIndices) {
+    /**
+     * Matches the partial token against the rule first, so rules that cannot start with it are skipped, and the
+     * enumeration starts from the states reached after it.
+     */
+    private void suggestAfterPartialToken(ATNState ruleStartState) {
+        if (origPartialToken.isEmpty()) {
+            suggest("", ruleStartState, ruleStartState.ruleIndex);
+            return;
+        }
+        BitSet statesAfterPartialToken = lexerWrapper.getPrefixDfa(ruleStartState, casePreference)
+                .statesAfter(origPartialToken);
+        for (int s = statesAfterPartialToken.nextSetBit(0); s >= 0; s = statesAfterPartialToken.nextSetBit(s + 1)) {
+            suggest(origPartialToken, atn.getState(s), ruleStartState.ruleIndex);
+        }
+    }
+
+    private void logTokensUsedForSuggestion(Collection<Integer> tokenTypes) {
         if (!logger.isDebugEnabled()) {
             return;
         }
-        String ruleNames = ruleIndices.stream().map(r -> lexerWrapper.getRuleNames()[r-1]).collect(Collectors.joining(" "));
-        logger.debug("Suggesting tokens for lexer rules: " + ruleNames, " ");
+        String tokenNames = tokenTypes.stream().map(t -> lexerWrapper.getVocabulary().getDisplayName(t)).collect(Collectors.joining(" "));
+        logger.debug("Suggesting tokens for token types: " + tokenNames + " in lexer mode " + lexerMode);
     }
 
 
-    private void suggest(String tokenSoFar, ATNState lexerState, String remainingText) {
-        logger.debug(
-                "SUGGEST: tokenSoFar=" + tokenSoFar + " remainingText=" + remainingText + " lexerState=" + toString(lexerState));
-        if (visitedLexerStates.contains(lexerState.stateNumber)) {
-            return; // avoid infinite loop and stack overflow
+    /**
+     * A step of the walk through the lexer ATN. The walk keeps its steps on an explicit stack rather than recursing,
+     * since it goes one level deeper per character and per epsilon transition. The exit step of a state removes it
+     * from the states on the current path.
+     *
+     * The callers hold the states to return to from the fragments invoked on the way, so that a fragment used twice
+     * in a rule returns to where it was invoked. When the walk starts inside a fragment, its caller is unknown and the
+     * walk follows all of them.
+     */
+    private static final class LexerStep {
+        final String tokenSoFar;
+        final ATNState lexerState;
+        final ParserStack callers;
+        final boolean exit;
+
+        LexerStep(String tokenSoFar, ATNState lexerState, ParserStack callers, boolean exit) {
+            this.tokenSoFar = tokenSoFar;
+            this.lexerState = lexerState;
+            this.callers = callers;
+            this.exit = exit;
         }
-        visitedLexerStates.add(lexerState.stateNumber);
-        try {
-            Transition[] transitions = lexerState.getTransitions();
-            boolean tokenNotEmpty = tokenSoFar.length() > 0;
-            boolean noMoreCharactersInToken = (transitions.length == 0);
-            if (tokenNotEmpty && noMoreCharactersInToken) {
-                addSuggestedToken(tokenSoFar);
+    }
+
+    private void suggest(String tokenSoFar, ATNState lexerState, int tokenRuleIndex) {
+        Deque<LexerStep> steps = new ArrayDeque<>();
+        steps.push(new LexerStep(tokenSoFar, lexerState, ParserStack.empty(), false));
+        while (!steps.isEmpty()) {
+            if (suggestions.size() >= maxSuggestions) {
+                visitedLexerStates.clear(); // The exit steps of the current path are not run
                 return;
             }
-            for (Transition trans : transitions) {
-                suggestViaLexerTransition(tokenSoFar, remainingText, trans);
+            LexerStep step = steps.pop();
+            BitSet visitedWithCallers = visitedLexerStates.computeIfAbsent(step.callers, c -> new BitSet());
+            if (step.exit) {
+                visitedWithCallers.clear(step.lexerState.stateNumber);
+                continue;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("SUGGEST: tokenSoFar=" + step.tokenSoFar + " lexerState=" + toString(step.lexerState));
+            }
+            if (visitedWithCallers.get(step.lexerState.stateNumber)) {
+                continue; // avoid infinite loop
+            }
+            visitedWithCallers.set(step.lexerState.stateNumber);
+            workCounters.lexerStateEntered();
+            steps.push(new LexerStep(step.tokenSoFar, step.lexerState, step.callers, true));
+            boolean tokenNotEmpty = step.tokenSoFar.length() > 0;
+            if (step.lexerState instanceof RuleStopState) {
+                if (!step.callers.isEmpty()) {
+                    steps.push(new LexerStep(step.tokenSoFar, step.callers.getReturnState(), step.callers.pop(),
+                            false));
+                    continue;
+                }
+                if (step.lexerState.ruleIndex == tokenRuleIndex) {
+                    // The edges leaving the token rule return to other rules invoking it
+                    if (tokenNotEmpty) {
+                        addSuggestedToken(step.tokenSoFar);
+                    }
+                    continue;
+                }
+            }
+            int firstEdge = atn.firstEdge(step.lexerState.stateNumber);
+            int endEdge = atn.endEdge(step.lexerState.stateNumber);
+            boolean noMoreCharactersInToken = (firstEdge == endEdge);
+            if (tokenNotEmpty && noMoreCharactersInToken) {
+                addSuggestedToken(step.tokenSoFar);
+                continue;
+            }
+            for (int edge = endEdge - 1; edge >= firstEdge; --edge) {
+                suggestViaLexerTransition(step, edge, steps);
             }
-        } finally {
-            visitedLexerStates.remove(visitedLexerStates.size() - 1);
         }
     }
 
@@ -85,36 +177,31 @@ class TokenSuggester {
         return ruleName + " " + lexerState.getClass().getSimpleName() + " " + lexerState;
     }
 
-    private void suggestViaLexerTransition(String tokenSoFar, String remainingText, Transition trans) {
-        if (trans.isEpsilon()) {
-            suggest(tokenSoFar, trans.target, remainingText);
-        } else if (trans instanceof AtomTransition) {
-            String newTokenChar = getAddedTextFor((AtomTransition) trans);
-            if (remainingText.isEmpty() || remainingText.startsWith(newTokenChar)) {
-                logger.debug("LEXER TOKEN: " + newTokenChar + " remaining=" + remainingText);
-                suggestViaNonEpsilonLexerTransition(tokenSoFar, remainingText, newTokenChar, trans.target);
-            } else {
-                logger.debug("NONMATCHING LEXER TOKEN: " + newTokenChar + " remaining=" + remainingText);
+    private void suggestViaLexerTransition(LexerStep step, int edge, Deque<LexerStep> steps) {
+        String tokenSoFar = step.tokenSoFar;
+        ATNState target = atn.getState(atn.target(edge));
+        byte kind = atn.kind(edge);
+        if (kind == CompiledAtn.EPSILON) {
+            steps.push(new LexerStep(tokenSoFar, target, step.callers, false));
+        } else if (kind == CompiledAtn.RULE) {
+            ATNState followState = ((RuleTransition) atn.getTransition(edge)).followState;
+            // A fragment invoking itself is entered once, like a loop
+            if (!step.callers.hasReturnStateInTopFrames(followState, Integer.MAX_VALUE)) {
+                steps.push(new LexerStep(tokenSoFar, target, step.callers.push(followState), false));
             }
-        } else if (trans instanceof SetTransition) {
-            List<Integer> symbols = ((SetTransition) trans).label().toList();
-            for (Integer symbol : symbols) {
-                char[] charArr = Character.toChars(symbol);
-                String charStr = new String(charArr);
-                boolean shouldIgnoreCase = shouldIgnoreThisCase(charArr[0], symbols); // TODO: check for non-BMP
-                if (!shouldIgnoreCase && (remainingText.isEmpty() || remainingText.startsWith(charStr))) {
-                    suggestViaNonEpsilonLexerTransition(tokenSoFar, remainingText, charStr, trans.target);
-                }
+        } else if (kind == CompiledAtn.ATOM) {
+            String newTokenChar = new String(Character.toChars(atn.label(edge)));
+            logger.debug("LEXER TOKEN: " + newTokenChar);
+            steps.push(new LexerStep(tokenSoFar + newTokenChar, target, step.callers, false));
+        } else { // Set, range, negated set or wildcard
+            CharacterClass characterClass = lexerWrapper.getCharacterClass(atn.getTransition(edge));
+            for (int codePoint : characterClass.getSuggestedCodePoints(casePreference)) {
+                steps.push(new LexerStep(tokenSoFar + new String(Character.toChars(codePoint)), target,
+                        step.callers, false));
             }
         }
     }
 
-    private void suggestViaNonEpsilonLexerTransition(String tokenSoFar, String remainingText,
-            String newTokenChar, ATNState targetState) {
-        String newRemainingText = (remainingText.length() > 0) ? remainingText.substring(1) : remainingText;
-        suggest(tokenSoFar + newTokenChar, targetState, newRemainingText);
-    }
-
     private void addSuggestedToken(String tokenToAdd) {
         String justTheCompletionPart = chopOffCommonStart(tokenToAdd, this.origPartialToken);
         suggestions.add(justTheCompletionPart);
@@ -125,24 +212,4 @@ class TokenSuggester {
         return a.substring(charsToChopOff);
     }
 
-    private String getAddedTextFor(AtomTransition transition) {
-        return new String(Character.toChars(transition.label));
-    }
-
-    private boolean shouldIgnoreThisCase(char transChar, List<Integer> allTransChars) {
-        if (this.casePreference == null) {
-            return false;
-        }
-        switch(this.casePreference) {
-        case BOTH:
-            return false;
-        case LOWER:
-            return Character.isUpperCase(transChar) && allTransChars.contains((int)Character.toLowerCase(transChar));
-        case UPPER:
-            return Character.isLowerCase(transChar) && allTransChars.contains((int)Character.toUpperCase(transChar));
-        default:
-            return false;
-        }
-    }
-
 }
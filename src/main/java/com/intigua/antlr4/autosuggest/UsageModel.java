@@ -0,0 +1,235 @@
+package com.intigua.antlr4.autosuggest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * How often each token type follows the one or two token types before it in a corpus, for ranking suggestions (see
+ * {@link AutoSuggester#setUsageModel(UsageModel)}). Unigram, bigram and trigram counts are kept in a single open
+ * addressing table of packed long keys and int counts, and scored with stupid backoff: the trigram frequency if the
+ * two preceding token types were seen together, else a discounted bigram frequency, else a further discounted
+ * unigram frequency.
+ *
+ * Models are trained offline with {@link #train(GrammarEngine, Collection)} or {@link #main(String[])}, and saved to
+ * a small binary file that records the content hash of the grammar they were trained for.
+ */
+public class UsageModel {
+    private static final int MAGIC = 0x41535547; // "ASUG"
+    private static final int VERSION = 1;
+    private static final double BACKOFF_FACTOR = 0.4;
+    private static final int BITS_PER_TOKEN_TYPE = 21;
+    private static final long TOKEN_TYPE_MASK = (1L << BITS_PER_TOKEN_TYPE) - 1;
+    /**
+     * Encoded token type standing for an absent context token, so shorter n-grams and context totals share the table.
+     */
+    private static final int NONE = 0;
+    private static final int START_OF_INPUT = 1;
+    private static final long EMPTY_KEY = 0; // NONE, NONE, NONE is never stored: its count is totalCount
+
+    private final String grammarHash;
+    private long[] keys;
+    private int[] counts;
+    private int size;
+    private long totalCount;
+
+    private UsageModel(String grammarHash, int expectedEntries) {
+        this.grammarHash = grammarHash;
+        int capacity = Integer.highestOneBit(Math.max(16, expectedEntries * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.counts = new int[capacity];
+    }
+
+    /**
+     * Counts the n-grams of the token types of each corpus entry, lexed with the engine's lexer. Tokens on other
+     * channels are ignored, as when suggesting.
+     */
+    public static UsageModel train(GrammarEngine engine, Collection<String> corpus) {
+        UsageModel model = new UsageModel(engine.getContentHash(), 1024);
+        for (String text : corpus) {
+            int previous2 = START_OF_INPUT;
+            int previous1 = START_OF_INPUT;
+            for (Token token : engine.getLexerWrapper().tokenizeNonDefaultChannel(text).tokens) {
+                if (token.getType() == Token.EOF) {
+                    continue;
+                }
+                int next = encode(token.getType());
+                model.increment(key(NONE, NONE, next));
+                model.increment(key(NONE, previous1, NONE));
+                model.increment(key(NONE, previous1, next));
+                model.increment(key(previous2, previous1, NONE));
+                model.increment(key(previous2, previous1, next));
+                ++model.totalCount;
+                previous2 = previous1;
+                previous1 = next;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Reads a model written by {@link #write(OutputStream)}.
+     */
+    public static UsageModel read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a usage model");
+        }
+        String grammarHash = data.readUTF();
+        int size = data.readInt();
+        UsageModel model = new UsageModel(grammarHash, size);
+        model.totalCount = data.readLong();
+        for (int i = 0; i < size; ++i) {
+            long key = data.readLong();
+            int slot = model.slotOf(key);
+            model.keys[slot] = key;
+            model.counts[slot] = data.readInt();
+            ++model.size;
+        }
+        return model;
+    }
+
+    /**
+     * Writes the model in a compact binary form: a header, then 12 bytes per distinct n-gram or context.
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(grammarHash);
+        data.writeInt(size);
+        data.writeLong(totalCount);
+        for (int slot = 0; slot < keys.length; ++slot) {
+            if (keys[slot] != EMPTY_KEY) {
+                data.writeLong(keys[slot]);
+                data.writeInt(counts[slot]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * The {@link GrammarEngine#getContentHash() content hash} of the grammar the model was trained for. Token types
+     * of other grammars mean other tokens.
+     */
+    public String getGrammarHash() {
+        return grammarHash;
+    }
+
+    /**
+     * Scores a token type following the given preceding token types, of which only the last two are used. Returns 0
+     * for token types never seen in the corpus.
+     *
+     * @param precedingTokenTypes
+     *            the token types before, oldest first; fewer than two means the input starts there
+     */
+    public double score(int[] precedingTokenTypes, int tokenType) {
+        int length = precedingTokenTypes.length;
+        int previous1 = (length >= 1) ? encode(precedingTokenTypes[length - 1]) : START_OF_INPUT;
+        int previous2 = (length >= 2) ? encode(precedingTokenTypes[length - 2]) : START_OF_INPUT;
+        int next = encode(tokenType);
+        int trigramCount = get(key(previous2, previous1, next));
+        if (trigramCount > 0) {
+            return (double) trigramCount / get(key(previous2, previous1, NONE));
+        }
+        int bigramCount = get(key(NONE, previous1, next));
+        if (bigramCount > 0) {
+            return BACKOFF_FACTOR * bigramCount / get(key(NONE, previous1, NONE));
+        }
+        return (totalCount == 0) ? 0 : BACKOFF_FACTOR * BACKOFF_FACTOR * get(key(NONE, NONE, next)) / totalCount;
+    }
+
+    public long estimateRetainedBytes() {
+        return 12L * keys.length + GrammarEngine.OBJECT_HEADER_BYTES * 3;
+    }
+
+    private static int encode(int tokenType) {
+        return tokenType + 2; // After NONE and START_OF_INPUT; EOF is never counted
+    }
+
+    private static long key(int previous2, int previous1, int next) {
+        return ((previous2 & TOKEN_TYPE_MASK) << (2 * BITS_PER_TOKEN_TYPE))
+                | ((previous1 & TOKEN_TYPE_MASK) << BITS_PER_TOKEN_TYPE) | (next & TOKEN_TYPE_MASK);
+    }
+
+    private int get(long key) {
+        return counts[slotOf(key)];
+    }
+
+    private void increment(long key) {
+        int slot = slotOf(key);
+        if (keys[slot] == EMPTY_KEY) {
+            keys[slot] = key;
+            ++size;
+        }
+        ++counts[slot];
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * The slot holding the key, or the empty slot where it would be inserted (linear probing).
+     */
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long key) {
+        long result = key * 0x9E3779B97F4A7C15L;
+        return result ^ (result >>> 32);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldCounts.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length < 4) {
+            System.err.println("Usage: UsageModel <lexer class> <parser class> <model file> <corpus file>...");
+            System.exit(2);
+        }
+        Class<? extends Lexer> lexerClass = (Class<? extends Lexer>) Class.forName(args[0]);
+        Class<? extends Parser> parserClass = (Class<? extends Parser>) Class.forName(args[1]);
+        List<String> corpus = new ArrayList<>();
+        for (int i = 3; i < args.length; ++i) {
+            corpus.addAll(Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8));
+        }
+        GrammarEngine engine = new GrammarEngine(new ReflectionLexerAndParserFactory(lexerClass, parserClass));
+        UsageModel model = train(engine, corpus);
+        try (OutputStream output = Files.newOutputStream(Paths.get(args[2]))) {
+            model.write(output);
+        }
+        System.out.println("Wrote " + model.size + " n-grams and contexts from " + model.totalCount + " tokens");
+    }
+}
@@ -0,0 +1,63 @@
+package com.intigua.antlr4.autosuggest;
+
+/**
+ * Deterministic counts of the work done for one suggestion request. Unlike timings they do not depend on the machine
+ * or its load, so tests can assert how they scale with the input.
+ */
+public class WorkCounters {
+    private long parserStatesEntered;
+    private long parserTransitionsFollowed;
+    private long lexerStatesEntered;
+    private long tokenizations;
+
+    /**
+     * Parser ATN states entered by any of the walks: matching the input, collecting the expected tokens and checking
+     * suggestions.
+     */
+    public long getParserStatesEntered() {
+        return parserStatesEntered;
+    }
+
+    /**
+     * Parser ATN transitions examined from the states entered.
+     */
+    public long getParserTransitionsFollowed() {
+        return parserTransitionsFollowed;
+    }
+
+    /**
+     * Lexer ATN states entered while spelling out suggested tokens.
+     */
+    public long getLexerStatesEntered() {
+        return lexerStatesEntered;
+    }
+
+    /**
+     * Times text was run through the lexer: the input itself, and the input with each suggestion appended.
+     */
+    public long getTokenizations() {
+        return tokenizations;
+    }
+
+    void parserStateEntered() {
+        ++parserStatesEntered;
+    }
+
+    void parserTransitionsFollowed(int count) {
+        parserTransitionsFollowed += count;
+    }
+
+    void lexerStateEntered() {
+        ++lexerStatesEntered;
+    }
+
+    void tokenized() {
+        ++tokenizations;
+    }
+
+    @Override
+    public String toString() {
+        return "parserStatesEntered=" + parserStatesEntered + " parserTransitionsFollowed=" + parserTransitionsFollowed
+                + " lexerStatesEntered=" + lexerStatesEntered + " tokenizations=" + tokenizations;
+    }
+}
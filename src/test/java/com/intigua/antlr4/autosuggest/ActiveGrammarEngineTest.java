@@ -0,0 +1,27 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.antlr.runtime.RecognitionException;
+import org.junit.Test;
+
+public class ActiveGrammarEngineTest {
+
+    @Test
+    public void reload_shouldLetSuggestersInFlightFinishWithPreviousEngine() throws RecognitionException {
+        GrammarEngine initialEngine = new GrammarEngine(SerializedAtnLexerAndParserFactoryTest.newSerializedFactory());
+        ActiveGrammarEngine activeEngine = new ActiveGrammarEngine(initialEngine);
+        AutoSuggester inFlight = activeEngine.newSuggester("SELECT a ");
+
+        GrammarEngine replaced = activeEngine.reload(SerializedAtnLexerAndParserFactoryTest.newSerializedFactory(
+                "lexer grammar sqllexer;\nSELECT: 'SELECT';\nFROM: 'FROM';\nWHERE: 'WHERE';\nID: [a-z]+;\n"
+                        + "WS: [ ]+ -> channel(HIDDEN);\n",
+                "parser grammar sqlparser;\nr: SELECT ID (FROM | WHERE) ID;\n"));
+
+        assertThat(replaced, sameInstance(initialEngine));
+        assertThat(inFlight.suggestCompletions(), containsInAnyOrder("FROM"));
+        assertThat(activeEngine.newSuggester("SELECT a ").suggestCompletions(), containsInAnyOrder("FROM", "WHERE"));
+    }
+}
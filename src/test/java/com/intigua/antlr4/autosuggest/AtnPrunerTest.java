@@ -0,0 +1,89 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collection;
+
+import org.antlr.v4.runtime.Vocabulary;
+import org.junit.Test;
+
+public class AtnPrunerTest {
+
+    @Test
+    public void tokenNeverEmitted_shouldRemoveItsEdges() {
+        LexerAndParserFactory factory = AutoSuggesterTest.loadGrammar("tokens { GHOST } r: GHOST 'A' | 'B'");
+        GrammarEngine engine = new GrammarEngine(factory);
+        PruningReport report = engine.getPruningReport();
+        int ghost = parserTokenType(factory, "GHOST");
+        assertThat(report.isVocabularyKnown(), is(true));
+        assertThat(report.getUnproducibleTokenTypes(), containsInAnyOrder(ghost));
+        assertThat(report.getUnproductiveStates(), is(not(empty())));
+        assertThat(engine.getParserWrapper().getCompiledAtn().getEdgeCount(),
+                is(report.getEdgeCount() - report.getRemovedEdgeCount()));
+        assertThat(suggest(engine, ""), containsInAnyOrder("B"));
+    }
+
+    @Test
+    public void setWithTokenNeverEmitted_shouldBeNarrowed() {
+        GrammarEngine engine = new GrammarEngine(
+                AutoSuggesterTest.loadGrammar("tokens { GHOST } r: (GHOST | 'A' | 'B') 'C'"));
+        PruningReport report = engine.getPruningReport();
+        assertThat(report.getNarrowedSetCount(), is(1));
+        assertThat(suggest(engine, ""), containsInAnyOrder("A", "B"));
+        assertThat(suggest(engine, "A"), containsInAnyOrder("C"));
+    }
+
+    @Test
+    public void negatedSetOfTokenNeverEmitted_shouldBeKept() {
+        LexerAndParserFactory factory = AutoSuggesterTest.loadGrammar("tokens { GHOST } r: ~GHOST 'C'", "A: 'a'");
+        GrammarEngine engine = new GrammarEngine(factory);
+        assertThat(engine.getPruningReport().getUnproducibleTokenTypes(),
+                containsInAnyOrder(parserTokenType(factory, "GHOST")));
+        assertThat(suggest(engine, ""), containsInAnyOrder("a", "C"));
+        assertThat(suggest(engine, "a"), containsInAnyOrder("C"));
+    }
+
+    @Test
+    public void phraseThroughTokenNeverEmitted_shouldFollowPrunedEdges() {
+        GrammarEngine engine = new GrammarEngine(
+                AutoSuggesterTest.loadGrammar("tokens { GHOST } r: 'A' ('B' 'C' | GHOST 'D')", "WS: [ ]+ -> skip"));
+        AutoSuggester suggester = new AutoSuggester(engine, "");
+        suggester.setMaxPhraseLength(3);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("A", "A B C"));
+    }
+
+    @Test
+    public void ruleThatNeverEnds_shouldNotBeSuggested() {
+        GrammarEngine engine = new GrammarEngine(AutoSuggesterTest.loadGrammar("r: 'A' x | 'B'", "x: 'C' x"));
+        assertThat(engine.getPruningReport().getUnproductiveStates(), is(not(empty())));
+        assertThat(suggest(engine, ""), containsInAnyOrder("B"));
+    }
+
+    @Test
+    public void lexerWithCustomAction_shouldKeepAllTokenEdges() {
+        GrammarEngine engine = new GrammarEngine(
+                AutoSuggesterTest.loadGrammar("tokens { GHOST } r: GHOST | 'B'", "ID: [a-z]+ {setType(GHOST);}"));
+        PruningReport report = engine.getPruningReport();
+        assertThat(report.isVocabularyKnown(), is(false));
+        assertThat(report.getUnproducibleTokenTypes(), is(empty()));
+        assertThat(report.getRemovedEdgeCount(), is(0));
+    }
+
+    private static int parserTokenType(LexerAndParserFactory factory, String symbolicName) {
+        Vocabulary vocabulary = factory.createParser(null).getVocabulary();
+        for (int tokenType = 0; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (symbolicName.equals(vocabulary.getSymbolicName(tokenType))) {
+                return tokenType;
+            }
+        }
+        throw new IllegalArgumentException(symbolicName);
+    }
+
+    private static Collection<String> suggest(GrammarEngine engine, String input) {
+        return new AutoSuggester(engine, input).suggestCompletions();
+    }
+}
@@ -0,0 +1,109 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+/**
+ * Guards against suggesting becoming superlinear in the input size, using {@link WorkCounters} rather than timings so
+ * the tests are deterministic. Each test measures an input pattern at a size and at twice that size; linear work
+ * roughly doubles, while quadratic work would quadruple.
+ */
+public class AutoSuggesterComplexityTest {
+    private static final int SIZE = 40;
+    private static final double MAX_GROWTH_WHEN_DOUBLING = 2.5;
+
+    private LexerAndParserFactory lexerAndParserFactory;
+
+    @Test
+    public void nestedParentheses_shouldScaleLinearly() {
+        givenGrammar("e: '(' e ')' | ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> StringUtils.repeat("(", n) + "a" + StringUtils.repeat(")", n - 1));
+    }
+
+    @Test
+    public void repeatedList_shouldScaleLinearly() {
+        givenGrammar("r: 'LIST' ID (',' ID)*", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> "LIST " + StringUtils.repeat("a, ", n));
+    }
+
+    @Test
+    public void optionalElementsList_shouldScaleLinearly() {
+        givenGrammar("r: (ID? ';')* 'END'", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> StringUtils.repeat("a; ;", n));
+    }
+
+    @Test
+    public void leftRecursiveExpression_shouldScaleLinearly() {
+        givenGrammar("r: e ';'", "e: e '*' e | e '+' e | '(' e ')' | ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> StringUtils.repeat("a + b * ", n));
+    }
+
+    @Test
+    public void singleOperatorLeftRecursiveExpression_shouldScaleLinearly() {
+        givenGrammar("r: e ';'", "e: e '+' e | ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> StringUtils.repeat("a + ", n));
+    }
+
+    @Test
+    public void nestedLeftRecursiveExpression_shouldScaleLinearly() {
+        givenGrammar("r: e ';'", "e: e '+' e | '(' e ')' | ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        thenWorkIsLinear(n -> StringUtils.repeat("a + (", n));
+    }
+
+    @Test
+    public void analyzeTokenBoundaries_shouldScaleLinearly() {
+        givenGrammar("r: (ID? ';' | '(' r ')')* 'END'", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        IntFunction<WorkCounters> analysisWork = n -> {
+            String input = StringUtils.repeat("(a; ", n) + StringUtils.repeat(";)", n);
+            AutoSuggester suggester = new AutoSuggester(lexerAndParserFactory, input);
+            suggester.analyzeTokenBoundaries();
+            return suggester.getWorkCounters();
+        };
+        WorkCounters small = analysisWork.apply(SIZE);
+        WorkCounters large = analysisWork.apply(2 * SIZE);
+        assertGrowth("parser states", small, large, WorkCounters::getParserStatesEntered);
+        assertGrowth("parser transitions", small, large, WorkCounters::getParserTransitionsFollowed);
+    }
+
+    @Test
+    public void ambiguousEndStates_shouldEnumerateAndCheckEachCandidateOnce() {
+        givenGrammar("r: a | b | c", "a: 'X' 'Y'", "b: 'X' 'Y' 'Z'", "c: 'X' ('Y' | 'W')", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(lexerAndParserFactory, "X ");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("Y", "W"));
+        // The input itself, then Y and W once each, although three parse paths reach the end of the input
+        assertThat(suggester.getWorkCounters().getTokenizations(), is(3L));
+    }
+
+    private void givenGrammar(String... grammarLines) {
+        this.lexerAndParserFactory = AutoSuggesterTest.loadGrammar(grammarLines);
+    }
+
+    private void thenWorkIsLinear(IntFunction<String> inputOfSize) {
+        WorkCounters small = measure(inputOfSize.apply(SIZE));
+        WorkCounters large = measure(inputOfSize.apply(2 * SIZE));
+        assertGrowth("parser states", small, large, WorkCounters::getParserStatesEntered);
+        assertGrowth("parser transitions", small, large, WorkCounters::getParserTransitionsFollowed);
+        assertGrowth("lexer states", small, large, WorkCounters::getLexerStatesEntered);
+        assertGrowth("tokenizations", small, large, WorkCounters::getTokenizations);
+    }
+
+    private WorkCounters measure(String input) {
+        AutoSuggester suggester = new AutoSuggester(lexerAndParserFactory, input);
+        suggester.suggestCompletions();
+        return suggester.getWorkCounters();
+    }
+
+    private static void assertGrowth(String counterName, WorkCounters small, WorkCounters large,
+            ToLongFunction<WorkCounters> counter) {
+        double allowed = Math.max(1, counter.applyAsLong(small)) * MAX_GROWTH_WHEN_DOUBLING;
+        assertThat(counterName + " at double size", (double) counter.applyAsLong(large), lessThanOrEqualTo(allowed));
+    }
+}
@@ -1,17 +1,34 @@
 package com.intigua.antlr4.autosuggest;
 
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertThat;
 import static com.intigua.antlr4.autosuggest.CasePreference.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.antlr.runtime.RecognitionException;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.Vocabulary;
 import org.antlr.v4.tool.Grammar;
 import org.antlr.v4.tool.LexerGrammar;
 import org.apache.commons.lang3.StringUtils;
@@ -23,9 +40,21 @@ import org.slf4j.LoggerFactory;
 public class AutoSuggesterTest {
 
     private final static String DEFAULT_LOG_LEVEL = "WARN";
+    private static final String[] SQL_WITH_RULES_GRAMMAR = { "r: 'SELECT' column 'FROM' table", "column: ID",
+            "table: ID", "ID: [a-z]+", "WS: ' ' -> skip" };
+    private static final String[] SQL_LIKE_GRAMMAR = { "r: 'SELECT' ID 'FROM' ID ('WHERE' ID)?", "ID: [a-z]+",
+            "WS: ' ' -> skip" };
+    static final String MODAL_LEXER_GRAMMAR = "OPEN: '\"' -> pushMode(STR);\n" + "ID: 'ab' | 'xyz';\n"
+            + "WS: ' ' -> skip;\n" + "mode STR;\n" + "TEXT: 'abc';\n" + "CLOSE: '\"' -> popMode;\n";
     private LexerAndParserFactory lexerAndParserFactory;
     private Collection<String> suggestedCompletions;
+    private List<String> rankedSuggestions;
+    private List<String> replacedWords;
     private CasePreference casePreference = null;
+    private int maxRecoveryEdits = 0;
+    private Integer recoveryWorkLimit = null;
+    private Map<String, SymbolProvider> symbolProvidersByRule = new HashMap<>();
+    private Map<String, SymbolProvider> symbolProvidersByTokenName = new HashMap<>();
 
     @BeforeClass
     public static void initLogging() {
@@ -104,6 +133,31 @@ public class AutoSuggesterTest {
         givenGrammar("r: A", "A: [A-E] 'X'").whenInput("C").thenExpect("X");
     }
 
+    @Test
+    public void suggest_withCharacterRange_shouldSuggestEntireRange() {
+        givenGrammar("r: A", "A: 'a'..'c'").whenInput("").thenExpect("a", "b", "c");
+    }
+
+    @Test
+    public void suggest_withNegatedSetMatchingPartial_shouldSuggest() {
+        givenGrammar("r: A", "A: '#' ~[a] 'z'").whenInput("#b").thenExpect("z");
+    }
+
+    @Test
+    public void suggest_withNegatedSetNotMatchingPartial_shouldNotSuggest() {
+        givenGrammar("r: A", "A: '#' ~[a] 'z'").whenInput("#a").thenExpect();
+    }
+
+    @Test
+    public void suggest_withHugeCharacterClass_shouldSuggestRepresentativesOnly() {
+        givenGrammar("r: A", "A: [a-c\\u4E00-\\u9FFF]").whenInput("").thenExpect("a", "\u4E00");
+    }
+
+    @Test
+    public void suggest_withNonBmpCharacterClassMatchingPartial_shouldSuggest() {
+        givenGrammar("r: A", "A: [\\u{1F600}-\\u{1F602}] 'z'").whenInput("\uD83D\uDE01").thenExpect("z");
+    }
+
     @Test
     public void suggest_withSingleAtomTokenAndSetCompletion_shouldSuggest() {
         givenGrammar("r: A", "A: 'AB' [C-E] 'X'").whenInput("AB").thenExpect("CX", "DX", "EX");
@@ -230,6 +284,21 @@ public class AutoSuggesterTest {
         givenGrammar("a: b | a a", "b: 'B'").whenInput("B").thenExpect("B");
     }
 
+    @Test
+    public void suggest_withRuleInvokedFromTwoPlaces_shouldReturnOnlyToActualCaller() {
+        givenGrammar("r: a 'X' | 'Y' a 'Z'", "a: 'A'").whenInput("A").thenExpect("X");
+    }
+
+    @Test
+    public void suggest_withNullableRuleInvokedTwiceOnSamePath_shouldSuggestAfterSecondInvocation() {
+        givenGrammar("r: a b", "b: a 'Y'", "a: 'X'?").whenInput("").thenExpect("X", "Y");
+    }
+
+    @Test
+    public void suggest_withNestedRuleInvocations_shouldReturnThroughAllCallers() {
+        givenGrammar("r: '(' r ')' | 'X'").whenInput("((X").thenExpect(")");
+    }
+
     @Test
     public void suggest_withDefaultCasePreference_shouldSuggestBoth() {
         givenGrammar("r: AB", "AB: A B", "fragment A: 'A' | 'a'", "fragment B: 'B' | 'b'").whenInput("").thenExpect("ab", "AB", "aB", "Ab");
@@ -255,11 +324,379 @@ public class AutoSuggesterTest {
         givenGrammar("r: AB", "AB: A B", "fragment A: 'A' | 'a'", "fragment B: 'B' | 'b'").withCasePreference(LOWER).whenInput("").thenExpect("ab");
     }
 
+    @Test
+    public void suggest_withFragmentUsedTwice_shouldReturnToEachInvocation() {
+        givenGrammar("r: SELECT", "SELECT: S E L E C T", "fragment S: [sS]", "fragment E: [eE]", "fragment L: [lL]",
+                "fragment C: [cC]", "fragment T: [tT]").withCasePreference(UPPER).whenInput("").thenExpect("SELECT");
+    }
+
     @Test
     public void suggest_withEofAfterOptional_shouldSuggest() {
         givenGrammar("r: A B? EOF", "A: 'A'", "B: 'B'").whenInput("A").thenExpect("B");
     }
 
+    @Test
+    public void suggest_withExtraTokenAndNoRecovery_shouldNotSuggest() {
+        givenGrammar("r: 'A' 'B' 'C'", "WS: ' ' -> skip").whenInput("A A B ").thenExpect();
+    }
+
+    @Test
+    public void suggest_withExtraTokenAndRecovery_shouldSuggestAsIfDeleted() {
+        givenGrammar("r: 'A' 'B' 'C'", "WS: ' ' -> skip").withRecovery(1).whenInput("A A B ").thenExpect("C");
+    }
+
+    @Test
+    public void suggest_withMisplacedTokenAndRecovery_shouldSuggestForEachSingleEditRepair() {
+        givenGrammar("r: 'A' 'B' 'C' 'D'", "WS: ' ' -> skip").withRecovery(1).whenInput("A C ").thenExpect("B", "D");
+    }
+
+    @Test
+    public void suggest_withMissingTokenAndRecovery_shouldSuggestAsIfInserted() {
+        givenGrammar("r: 'A' 'B' 'C' 'D' 'E'", "WS: ' ' -> skip").withRecovery(1).whenInput("A C D ").thenExpect("E");
+    }
+
+    @Test
+    public void suggest_withRecovery_shouldPreferCheapestRepair() {
+        givenGrammar("r: 'A' 'B' 'C' | 'A' 'X' 'B' 'D' | 'Z'", "WS: ' ' -> skip").withRecovery(2).whenInput("A Z B ")
+                .thenExpect("C");
+    }
+
+    @Test
+    public void suggest_withTooManyErrorsForRecovery_shouldNotSuggest() {
+        givenGrammar("r: 'A' 'B' 'C'", "WS: ' ' -> skip").withRecovery(1).whenInput("A A A B ").thenExpect();
+    }
+
+    @Test
+    public void suggest_withExhaustedRecoveryWorkLimit_shouldNotSuggest() {
+        givenGrammar("r: 'A' 'B' 'C'", "WS: ' ' -> skip").withRecovery(1).withRecoveryWorkLimit(1)
+                .whenInput("A A B ").thenExpect();
+    }
+
+    @Test
+    public void suggest_withFragmentDefinedBeforeToken_shouldSuggestTheToken() {
+        givenGrammar("r: A B", "A: 'a'", "fragment F: 'f'", "B: 'b' F").whenInput("a").thenExpect("bf");
+    }
+
+    @Test
+    public void suggest_insideLexerMode_shouldSuggestTokensOfThatMode() {
+        givenLexerAndParserGrammar(MODAL_LEXER_GRAMMAR, "r: (ID | OPEN TEXT* CLOSE)+").whenInput("ab \"").thenExpect("abc",
+                "\"");
+    }
+
+    @Test
+    public void suggest_afterLeavingLexerMode_shouldSuggestDefaultModeTokens() {
+        givenLexerAndParserGrammar(MODAL_LEXER_GRAMMAR, "r: (ID | OPEN TEXT* CLOSE)+").whenInput("\"abc\" ").thenExpect(
+                "ab", "xyz", "\"");
+    }
+
+    @Test
+    public void suggestFuzzy_withTypoInUntokenizedText_shouldSuggestKeyword() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELCT", 1).thenExpectRanked("SELECT").thenExpectReplacing("SELCT");
+    }
+
+    @Test
+    public void suggestFuzzy_withTypoLexedAsToken_shouldSuggestKeywordInsteadOfIt() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELECT a frm", 1).thenExpectRanked("FROM")
+                .thenExpectReplacing("frm");
+    }
+
+    @Test
+    public void suggestFuzzy_withTypedCharactersInOrder_shouldSuggestKeyword() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("sct", 1).thenExpectRanked("SELECT").thenExpectReplacing("sct");
+    }
+
+    @Test
+    public void suggestFuzzy_shouldOnlySuggestExpectedTokens() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELECT a WHER", 2).thenExpectRanked();
+    }
+
+    @Test
+    public void suggestFuzzy_shouldRankByEditDistance() {
+        givenGrammar("r: 'SELECT' | 'SELF' | 'DELETE'").whenFuzzyInput("SEL", 1).thenExpectRanked("SELF", "SELECT",
+                "DELETE").thenExpectReplacing("SEL");
+    }
+
+    @Test
+    public void suggestFuzzy_withSeveralLexerErrorsInTypedWord_shouldReplaceWholeWord() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELECT a FRM", 1).thenExpectRanked("FROM")
+                .thenExpectReplacing("FRM");
+    }
+
+    @Test
+    public void suggestFuzzy_withTypoFarFromExpectedTokens_shouldNotSuggest() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELECT a WHRE", 1).thenExpectRanked();
+    }
+
+    @Test
+    public void suggestFuzzy_withNothingTyped_shouldNotSuggest() {
+        givenGrammar(SQL_LIKE_GRAMMAR).whenFuzzyInput("SELECT ", 1).thenExpectRanked();
+    }
+
+    @Test
+    public void suggest_withSymbolProviderForRule_shouldCompletePartialToken() {
+        givenGrammar(SQL_WITH_RULES_GRAMMAR).withSymbolProviderForRule("table", "customers", "orders")
+                .withSymbolProviderForRule("column", "cost", "name").whenInput("SELECT name FROM c").thenExpect("ustomers");
+    }
+
+    @Test
+    public void suggest_withSymbolProviderForRuleAndNonBmpPrefix_shouldCompletePartialToken() {
+        givenGrammar("r: 'SELECT' column 'FROM' table", "column: ID", "table: ID", "ID: [a-z\\u{1F600}]+",
+                "WS: ' ' -> skip").withSymbolProviderForRule("table", "\uD83D\uDE00orders", "orders")
+                        .whenInput("SELECT name FROM \uD83D\uDE00o").thenExpect("rders");
+    }
+
+    @Test
+    public void suggest_withSymbolProviderForRule_shouldOnlyUseProviderOfExpectedRule() {
+        givenGrammar(SQL_WITH_RULES_GRAMMAR).withSymbolProviderForRule("table", "customers", "orders")
+                .withSymbolProviderForRule("column", "cost", "name").whenInput("SELECT ").thenExpectIncluding("cost", "name")
+                .thenExpectExcluding("customers", "orders");
+    }
+
+    @Test
+    public void suggest_withSymbolProviderForTokenType_shouldSuggestSymbols() {
+        givenGrammar(SQL_WITH_RULES_GRAMMAR).withSymbolProviderForTokenType("ID", "customers", "orders")
+                .whenInput("SELECT name FROM o").thenExpect("rders");
+    }
+
+    @Test
+    public void suggest_withLongInput_shouldNotNeedDeepThreadStack() throws InterruptedException {
+        givenGrammar("r: ('(' r ')' | 'A' ';')* 'END'", "WS: [ ]+ -> skip");
+        String input = StringUtils.repeat("(", 200) + StringUtils.repeat("A; ", 2000) + "E";
+        Thread smallStackThread = new Thread(null, () -> whenInput(input), "small-stack", 256 * 1024);
+        smallStackThread.start();
+        smallStackThread.join();
+        thenExpect("ND");
+    }
+
+    @Test
+    public void suggest_withCallerTokens_shouldIgnoreHiddenTokensAndNotLexInput() {
+        givenGrammar("r: 'SELECT' ID 'FROM' ID", "ID: [a-z]+", "WS: [ ]+ -> channel(HIDDEN)");
+        Lexer lexer = this.lexerAndParserFactory.createLexer(CharStreams.fromString("SELECT a "));
+        AutoSuggester suggester = new AutoSuggester(new GrammarEngine(this.lexerAndParserFactory), "SELECT a ",
+                lexer.getAllTokens(), "");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("FROM"));
+        assertThat(suggester.getWorkCounters().getTokenizations(), is(1L)); // Only checking the suggestion
+    }
+
+    @Test
+    public void suggest_withCallerTokenStream_shouldUseTokensBeforeEndOfInput() {
+        givenGrammar("r: 'SELECT' ID 'FROM' ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        CommonTokenStream tokenStream = new CommonTokenStream(
+                this.lexerAndParserFactory.createLexer(CharStreams.fromString("SELECT a FROM b")));
+        AutoSuggester suggester = new AutoSuggester(new GrammarEngine(this.lexerAndParserFactory), "SELECT a ",
+                tokenStream, "");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("FROM"));
+    }
+
+    @Test
+    public void suggest_withCallerTokensAndUntokenizedText_shouldCompleteUntokenizedText() {
+        givenGrammar("r: 'SELECT' ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(new GrammarEngine(this.lexerAndParserFactory), "SEL",
+                Collections.emptyList(), "SEL");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("ECT"));
+    }
+
+    @Test
+    public void analyzeTokenBoundaries_shouldFindExpectedTokensAfterEachToken() {
+        givenGrammar(SQL_LIKE_GRAMMAR);
+        DocumentAnalysis analysis = new AutoSuggester(this.lexerAndParserFactory, "SELECT a FROM b")
+                .analyzeTokenBoundaries();
+        assertThat(analysis.getParsedTokenCount(), is(4));
+        assertThat(analysis.getExpectedTokenTypes(0), containsInAnyOrder(tokenType("'SELECT'")));
+        assertThat(analysis.getExpectedTokenTypes(1), containsInAnyOrder(tokenType("ID")));
+        assertThat(analysis.getExpectedTokenTypes(2), containsInAnyOrder(tokenType("'FROM'")));
+        assertThat(analysis.getExpectedTokenTypes(4), containsInAnyOrder(tokenType("'WHERE'")));
+    }
+
+    @Test
+    public void analyzeTokenBoundaries_withSyntaxError_shouldStopAtError() {
+        givenGrammar(SQL_LIKE_GRAMMAR);
+        DocumentAnalysis analysis = new AutoSuggester(this.lexerAndParserFactory, "SELECT FROM b")
+                .analyzeTokenBoundaries();
+        assertThat(analysis.getParsedTokenCount(), is(1));
+        assertThat(analysis.getExpectedTokenTypes(1), containsInAnyOrder(tokenType("ID")));
+        assertThat(analysis.getExpectedTokenTypes(2), is(empty()));
+    }
+
+    @Test
+    public void suggestExpectedTokens_shouldNameTokenTypesAndRules() {
+        givenGrammar(SQL_WITH_RULES_GRAMMAR);
+        GrammarEngine engine = new GrammarEngine(this.lexerAndParserFactory);
+        List<ExpectedToken> expectedTokens = new AutoSuggester(engine, "SELECT a FROM ").suggestExpectedTokens();
+        assertThat(expectedTokens.size(), is(1));
+        assertThat(expectedTokens.get(0).getTokenType(), is(tokenType("ID")));
+        assertThat(expectedTokens.get(0).getDisplayName(), is("ID"));
+        assertThat(expectedTokens.get(0).getRuleNames(), containsInAnyOrder("table"));
+    }
+
+    @Test
+    public void suggestExpectedTokens_shouldNotEnumerateOrLexCandidates() {
+        givenGrammar(SQL_LIKE_GRAMMAR);
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "SELECT a FR");
+        List<ExpectedToken> expectedTokens = suggester.suggestExpectedTokens();
+        assertThat(expectedTokens.stream().map(ExpectedToken::getDisplayName).collect(Collectors.toList()),
+                contains("'FROM'"));
+        assertThat(suggester.getWorkCounters().getTokenizations(), is(1L));
+        assertThat(suggester.getWorkCounters().getLexerStatesEntered(), is(0L));
+    }
+
+    @Test
+    public void suggest_withPartialTokenRepeatingALoop_shouldCompleteIt() {
+        givenGrammar("r: 'SELECT' NAME", "NAME: ('ab')+ 'c'", "WS: ' ' -> skip").whenInput("SELECT abab")
+                .thenExpect("c");
+    }
+
+    @Test
+    public void suggest_withPartialToken_shouldNotEnumerateRulesThatCannotStartWithIt() {
+        givenGrammar("r: 'SELECT' ('FROM' | 'WHERE' | 'GROUP' | 'ORDER')");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "SELECTW");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("HERE"));
+        // About one state per character left of WHERE, while each other keyword would add as many
+        assertThat(suggester.getWorkCounters().getLexerStatesEntered(), lessThan(10L));
+    }
+
+    @Test
+    public void suggest_withPredicateEvaluator_shouldSkipDisabledAlternatives() {
+        givenGrammar("r: {isEnabled(\"merge\")}? 'MERGE' | 'SELECT'").whenInput("").thenExpect("MERGE", "SELECT");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "");
+        suggester.setPredicateEvaluator((ruleIndex, predicateIndex) -> false);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("SELECT"));
+    }
+
+    @Test
+    public void suggest_withPredicateEvaluator_shouldEvaluateEachPredicateOncePerPosition() {
+        givenGrammar("r: ({isEnabled(\"more\")}? 'A')* 'B'", "WS: ' ' -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "A A A ");
+        List<Integer> evaluatedTokenIndices = new ArrayList<>();
+        suggester.setPredicateEvaluator(new PredicateEvaluator() {
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex) {
+                return true;
+            }
+
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex, int[] invokingRuleIndices, int tokenIndex) {
+                return evaluatedTokenIndices.add(tokenIndex);
+            }
+        });
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("A", "B"));
+        assertThat(evaluatedTokenIndices, contains(0, 1, 2, 3));
+    }
+
+    @Test
+    public void suggest_withPredicateDependingOnCaller_shouldEvaluateItPerInvocation() {
+        givenGrammar("r: x | y", "x: z 'X'", "y: z 'Y'", "z: {inX()}? 'C' | 'D'", "WS: ' ' -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "C ");
+        suggester.setPredicateEvaluator(new PredicateEvaluator() {
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex) {
+                return true;
+            }
+
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex, int[] invokingRuleIndices, int tokenIndex) {
+                return invokingRuleIndices.length > 0 && invokingRuleIndices[0] == 1; // Rule x
+            }
+        });
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("X"));
+    }
+
+    @Test
+    public void analyzeTokenBoundaries_withPredicateDependingOnPosition_shouldEvaluateItAtEachBoundary() {
+        givenGrammar("r: ({early()}? 'A' | 'B')* 'END'", "WS: ' ' -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "A A B END");
+        suggester.setPredicateEvaluator(new PredicateEvaluator() {
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex) {
+                return true;
+            }
+
+            @Override
+            public boolean evaluate(int ruleIndex, int predicateIndex, int[] invokingRuleIndices, int tokenIndex) {
+                return tokenIndex < 2;
+            }
+        });
+        DocumentAnalysis analysis = suggester.analyzeTokenBoundaries();
+        assertThat(analysis.getParsedTokenCount(), is(4));
+        assertThat(analysis.getExpectedTokenTypes(0),
+                containsInAnyOrder(tokenType("'A'"), tokenType("'B'"), tokenType("'END'")));
+        assertThat(analysis.getExpectedTokenTypes(2), containsInAnyOrder(tokenType("'B'"), tokenType("'END'")));
+    }
+
+    @Test
+    public void suggest_afterOperandOfLeftRecursiveRule_shouldSuggestAllOperators() {
+        givenGrammar("r: e ';'", "e: e '*' e | e '+' e | ID", "ID: [a-z]+", "WS: ' ' -> skip")
+                .whenInput("a + b * c ").thenExpect("*", "+", ";");
+    }
+
+    @Test
+    public void suggest_afterOperandWhenCallerConsumesOperator_shouldSuggestCallersContinuation() {
+        givenGrammar("r: e '*' 'X'", "e: e '*' e | ID", "ID: [a-z]+", "WS: ' ' -> skip");
+        assertThat(new AutoSuggester(this.lexerAndParserFactory, "a * ").suggestCompletions(), hasItem("X"));
+    }
+
+    @Test
+    public void suggest_withPartialTokenOnLaterLine_shouldCompleteIt() {
+        givenGrammar("r: 'SELECT' ID 'FROM' ID", "ID: [a-z]+", "WS: [ \\r\\n]+ -> skip").whenInput("SELECT a\nFR")
+                .thenExpect("OM");
+    }
+
+    @Test
+    public void suggest_withPhrases_shouldAlsoSuggestTokensThatMustFollow() {
+        givenGrammar("r: 'SELECT' ID ('ORDER' 'BY' ID | 'IS' 'NOT' 'NULL')?", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "SELECT a ");
+        suggester.setMaxPhraseLength(3);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("ORDER", "ORDER BY", "IS", "IS NOT NULL"));
+    }
+
+    @Test
+    public void suggest_withPhrases_shouldLimitPhraseLength() {
+        givenGrammar("r: 'SELECT' ID ('IS' 'NOT' 'NULL')?", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "SELECT a I");
+        suggester.setMaxPhraseLength(2);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("S", "S NOT"));
+    }
+
+    @Test
+    public void suggest_withPhrases_shouldNotExtendThroughChoices() {
+        givenGrammar("r: 'IS' ('NOT' | 'A') 'NULL'", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "");
+        suggester.setMaxPhraseLength(3);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("IS"));
+    }
+
+    @Test
+    public void suggest_withPhrases_shouldNotExtendPastEndOfRule() {
+        givenGrammar("r: a 'C' | a 'D'", "a: 'A' 'B'", "WS: [ ]+ -> skip");
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, "");
+        suggester.setMaxPhraseLength(3);
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("A", "A B"));
+    }
+
+    @Test
+    public void suggest_withTracer_shouldTraceRequestAndPhases() {
+        givenGrammar("r: 'SELECT' ID", "ID: [a-z]+", "WS: [ ]+ -> skip");
+        List<String> events = new ArrayList<>();
+        GrammarEngine engine = new GrammarEngine(this.lexerAndParserFactory);
+        engine.setTracer(new SuggestionTracer() {
+            @Override
+            public Request requestStarted(int inputLength) {
+                events.add("request " + inputLength);
+                return (suggestionCount, incomplete) -> events.add("end " + suggestionCount + " " + incomplete);
+            }
+
+            @Override
+            public Span phaseStarted(Phase phase) {
+                events.add(phase.name());
+                return () -> events.add("end " + phase.name());
+            }
+        });
+        new AutoSuggester(engine, "SEL").suggestCompletions();
+        assertThat(events, is(Arrays.asList("request 3", "TOKENIZATION", "end TOKENIZATION", "PARSER_WALK",
+                "end PARSER_WALK", "LEXER_ENUMERATION", "end LEXER_ENUMERATION", "VALIDATION", "end VALIDATION",
+                "end 1 false")));
+    }
+
     // @Test
     // public void suggest_withMultipleParseOptions_shouldSuggestAll() {
     // // Currently failing due to weird AST created by antlr4. Parser state 11
@@ -274,11 +711,37 @@ public class AutoSuggesterTest {
         return this;
     }
 
+    private AutoSuggesterTest givenLexerAndParserGrammar(String lexerGrammar, String... parserGrammarLines) {
+        this.lexerAndParserFactory = loadLexerAndParserGrammars(lexerGrammar, parserGrammarLines);
+        printGrammarAtnIfNeeded();
+        return this;
+    }
+
     private AutoSuggesterTest withCasePreference(CasePreference casePreference) {
         this.casePreference = casePreference;
         return this;
     }
 
+    private AutoSuggesterTest withRecovery(int maxRecoveryEdits) {
+        this.maxRecoveryEdits = maxRecoveryEdits;
+        return this;
+    }
+
+    private AutoSuggesterTest withRecoveryWorkLimit(int recoveryWorkLimit) {
+        this.recoveryWorkLimit = recoveryWorkLimit;
+        return this;
+    }
+
+    private AutoSuggesterTest withSymbolProviderForRule(String parserRuleName, String... symbols) {
+        this.symbolProvidersByRule.put(parserRuleName, PrefixSymbolIndex.of(Arrays.asList(symbols)));
+        return this;
+    }
+
+    private AutoSuggesterTest withSymbolProviderForTokenType(String tokenName, String... symbols) {
+        this.symbolProvidersByTokenName.put(tokenName, PrefixSymbolIndex.of(Arrays.asList(symbols)));
+        return this;
+    }
+
     /*
      * Used for testing with generated grammars, e.g. for checking out reported issues, before coming up with a more
      * focused test
@@ -307,15 +770,64 @@ public class AutoSuggesterTest {
     private AutoSuggesterTest whenInput(String input) {
         AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, input);
         suggester.setCasePreference(this.casePreference);
+        suggester.setMaxRecoveryEdits(this.maxRecoveryEdits);
+        if (this.recoveryWorkLimit != null) {
+            suggester.setRecoveryWorkLimit(this.recoveryWorkLimit);
+        }
+        symbolProvidersByRule.forEach(suggester::addSymbolProviderForRule);
+        symbolProvidersByTokenName.forEach((tokenName, provider) -> suggester.addSymbolProvider(tokenType(tokenName), provider));
         this.suggestedCompletions = suggester.suggestCompletions();
         return this;
     }
 
+    private AutoSuggesterTest whenFuzzyInput(String input, int maxEditDistance) {
+        AutoSuggester suggester = new AutoSuggester(this.lexerAndParserFactory, input);
+        suggester.setCasePreference(this.casePreference);
+        List<FuzzySuggestion> suggestions = suggester.suggestFuzzyCompletions(maxEditDistance, 10);
+        this.rankedSuggestions = suggestions.stream().map(FuzzySuggestion::getText).collect(Collectors.toList());
+        this.replacedWords = suggestions.stream()
+                .map(suggestion -> input.substring(input.length() - suggestion.getReplacedLength()))
+                .collect(Collectors.toList());
+        return this;
+    }
+
+    private AutoSuggesterTest thenExpectRanked(String... expectedSuggestions) {
+        assertThat(this.rankedSuggestions, is(Arrays.asList(expectedSuggestions)));
+        return this;
+    }
+
+    private void thenExpectReplacing(String typedWord) {
+        assertThat(this.replacedWords, everyItem(is(typedWord)));
+    }
+
     private void thenExpect(String... expectedCompletions) {
         assertThat(this.suggestedCompletions, containsInAnyOrder(expectedCompletions));
     }
 
-    private LexerAndParserFactory loadGrammar(String... grammarlines) {
+    private AutoSuggesterTest thenExpectIncluding(String... expectedCompletions) {
+        assertThat(this.suggestedCompletions, hasItems(expectedCompletions));
+        return this;
+    }
+
+    private AutoSuggesterTest thenExpectExcluding(String... unexpectedCompletions) {
+        for (String unexpectedCompletion : unexpectedCompletions) {
+            assertThat(this.suggestedCompletions, not(hasItem(unexpectedCompletion)));
+        }
+        return this;
+    }
+
+    private int tokenType(String tokenName) {
+        Vocabulary vocabulary = this.lexerAndParserFactory.createLexer(null).getVocabulary();
+        for (int tokenType = 0; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (tokenName.equals(vocabulary.getSymbolicName(tokenType))
+                    || tokenName.equals(vocabulary.getLiteralName(tokenType))) {
+                return tokenType;
+            }
+        }
+        throw new IllegalArgumentException(tokenName);
+    }
+
+    static LexerAndParserFactory loadGrammar(String... grammarlines) {
         String firstLine = "grammar testgrammar;\n";
         String grammarText = firstLine + StringUtils.join(Arrays.asList(grammarlines), ";\n") + ";\n";
         LexerGrammar lg;
@@ -338,4 +850,30 @@ public class AutoSuggesterTest {
             throw new IllegalArgumentException(e);
         }
     }
+
+    /**
+     * Loads separate lexer and parser grammars, needed for lexer features such as modes.
+     */
+    static LexerAndParserFactory loadLexerAndParserGrammars(String lexerGrammarText, String... parserGrammarLines) {
+        String parserGrammarText = "parser grammar testparser;\n" + StringUtils.join(Arrays.asList(parserGrammarLines), ";\n")
+                + ";\n";
+        try {
+            LexerGrammar lg = new LexerGrammar("lexer grammar testlexer;\n" + lexerGrammarText);
+            Grammar g = new Grammar(parserGrammarText, lg);
+            return new LexerAndParserFactory() {
+
+                @Override
+                public Parser createParser(TokenStream tokenStream) {
+                    return g.createParserInterpreter(tokenStream);
+                }
+
+                @Override
+                public Lexer createLexer(CharStream input) {
+                    return lg.createLexerInterpreter(input);
+                }
+            };
+        } catch (RecognitionException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.AtomTransition;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.junit.Test;
+
+public class CompiledAtnTest {
+
+    private final LexerAndParserFactory factory = AutoSuggesterTest.loadGrammar("r: 'A' b | ~('A' | 'B') '.'",
+            "b: ('B' | 'C')+", "ID: [a-z]+ | '\\\\' .");
+
+    @Test
+    public void compile_parserAtn_shouldMatchObjectGraph() {
+        assertMatchesObjectGraph(new GrammarEngine(factory).getParserWrapper().getAtn());
+    }
+
+    @Test
+    public void compile_lexerAtn_shouldMatchObjectGraph() {
+        assertMatchesObjectGraph(new GrammarEngine(factory).getLexerWrapper().getAtn());
+    }
+
+    @Test
+    public void compile_identicalSets_shouldBeInterned() {
+        ATN atn = AutoSuggesterTest.loadGrammar("r: ('A' | 'B') ('A' | 'B')").createParser(null).getATN();
+        CompiledAtn compiled = new CompiledAtn(atn);
+        int setEdges = 0;
+        int lastSetIndex = -1;
+        for (int edge = 0; edge < compiled.getEdgeCount(); ++edge) {
+            if (compiled.kind(edge) == CompiledAtn.SET) {
+                assertThat(lastSetIndex == -1 || lastSetIndex == compiled.label(edge), is(true));
+                lastSetIndex = compiled.label(edge);
+                ++setEdges;
+            }
+        }
+        assertThat(setEdges, is(2));
+    }
+
+    @Test
+    public void compile_negatedSet_shouldMatchOtherTokenTypes() {
+        GrammarEngine engine = new GrammarEngine(factory);
+        CompiledAtn compiled = new CompiledAtn(engine.getParserWrapper().getAtn());
+        Vocabulary vocabulary = engine.getLexerWrapper().getVocabulary();
+        int negatedSetEdges = 0;
+        for (int edge = 0; edge < compiled.getEdgeCount(); ++edge) {
+            if (compiled.getTransition(edge) instanceof NotSetTransition) {
+                assertThat(compiled.matches(edge, tokenType(vocabulary, "'A'")), is(false));
+                assertThat(compiled.matches(edge, tokenType(vocabulary, "'C'")), is(true));
+                assertThat(compiled.matches(edge, tokenType(vocabulary, "ID")), is(true));
+                assertThat(compiled.matches(edge, Token.EOF), is(false));
+                ++negatedSetEdges;
+            }
+        }
+        assertThat(negatedSetEdges, is(1));
+    }
+
+    private static int tokenType(Vocabulary vocabulary, String name) {
+        for (int tokenType = 0; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (name.equals(vocabulary.getLiteralName(tokenType))
+                    || name.equals(vocabulary.getSymbolicName(tokenType))) {
+                return tokenType;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static void assertMatchesObjectGraph(ATN atn) {
+        CompiledAtn compiled = new CompiledAtn(atn);
+        int edges = 0;
+        for (ATNState state : atn.states) {
+            int s = state.stateNumber;
+            assertThat(compiled.isRuleStop(s), is(state instanceof RuleStopState));
+            assertThat(compiled.endEdge(s) - compiled.firstEdge(s), is(state.getNumberOfTransitions()));
+            for (int i = 0; i < state.getNumberOfTransitions(); ++i) {
+                Transition trans = state.transition(i);
+                int edge = compiled.firstEdge(s) + i;
+                assertThat(compiled.getTransition(edge) == trans, is(true));
+                assertThat(compiled.target(edge), is(trans.target.stateNumber));
+                if (trans instanceof RuleTransition) {
+                    assertThat(compiled.kind(edge), is(CompiledAtn.RULE));
+                    assertThat(compiled.label(edge), is(((RuleTransition) trans).followState.stateNumber));
+                } else if (trans.isEpsilon()) {
+                    assertThat(compiled.kind(edge), is(CompiledAtn.EPSILON));
+                } else if (trans instanceof AtomTransition) {
+                    assertThat(compiled.kind(edge), is(CompiledAtn.ATOM));
+                    assertThat(compiled.matches(edge, ((AtomTransition) trans).label), is(true));
+                } else if (compiled.kind(edge) == CompiledAtn.SET) {
+                    for (int symbol = 0; symbol <= atn.maxTokenType + 1; ++symbol) {
+                        assertThat(compiled.matches(edge, symbol), is(trans.matches(symbol, 1, atn.maxTokenType)));
+                    }
+                } else {
+                    assertThat(compiled.kind(edge), is(CompiledAtn.WILDCARD));
+                }
+                ++edges;
+            }
+        }
+        assertThat(compiled.getEdgeCount(), is(edges));
+    }
+}
@@ -0,0 +1,76 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GrammarEngineRegistryTest {
+
+    private final Map<String, LexerAndParserFactory> grammars = new HashMap<>();
+    private final Map<String, Integer> loadCounts = new HashMap<>();
+
+    @Test
+    public void getEngine_calledTwice_shouldBuildOnce() {
+        givenGrammar("g1", "r: 'A' 'B'");
+        GrammarEngineRegistry registry = newRegistry(Long.MAX_VALUE);
+        GrammarEngine first = registry.getEngine("g1");
+        GrammarEngine second = registry.getEngine("g1");
+        assertThat(second, sameInstance(first));
+        assertThat(loadCounts.get("g1"), is(1));
+    }
+
+    @Test
+    public void getEngine_withIdenticalGrammars_shouldShareEngine() {
+        givenGrammar("g1", "r: 'A' 'B'");
+        givenGrammar("g2", "r: 'A' 'B'");
+        givenGrammar("g3", "r: 'A' 'C'");
+        GrammarEngineRegistry registry = newRegistry(Long.MAX_VALUE);
+        assertThat(registry.getEngine("g2"), sameInstance(registry.getEngine("g1")));
+        assertThat(registry.getEngine("g3"), not(sameInstance(registry.getEngine("g1"))));
+        assertThat(registry.getCachedEngineCount(), is(2));
+    }
+
+    @Test
+    public void getEngine_overMemoryBudget_shouldEvictLeastRecentlyUsed() {
+        givenGrammar("g1", "r: 'A' 'B'");
+        givenGrammar("g2", "r: 'A' 'C'");
+        givenGrammar("g3", "r: 'A' 'D'");
+        long engineSize = new GrammarEngine(grammars.get("g1")).estimateRetainedBytes();
+        GrammarEngineRegistry registry = newRegistry(engineSize * 2 + engineSize / 2);
+        registry.getEngine("g1");
+        registry.getEngine("g2");
+        registry.getEngine("g1");
+        registry.getEngine("g3");
+        assertThat(registry.isCached("g1"), is(true));
+        assertThat(registry.isCached("g2"), is(false));
+        assertThat(registry.isCached("g3"), is(true));
+    }
+
+    @Test
+    public void getEngine_afterEviction_shouldRebuildAndStillSuggest() {
+        givenGrammar("g1", "r: 'A' 'B'");
+        GrammarEngineRegistry registry = newRegistry(0);
+        registry.getEngine("g1");
+        assertThat(registry.isCached("g1"), is(true)); // The engine just requested is never evicted
+        GrammarEngine rebuilt = registry.getEngine("g1");
+        assertThat(new AutoSuggester(rebuilt, "A").suggestCompletions(), containsInAnyOrder("B"));
+    }
+
+    private void givenGrammar(String grammarId, String... grammarLines) {
+        grammars.put(grammarId, AutoSuggesterTest.loadGrammar(grammarLines));
+    }
+
+    private GrammarEngineRegistry newRegistry(long memoryBudgetBytes) {
+        return new GrammarEngineRegistry(grammarId -> {
+            loadCounts.merge(grammarId, 1, Integer::sum);
+            return grammars.get(grammarId);
+        }, memoryBudgetBytes);
+    }
+}
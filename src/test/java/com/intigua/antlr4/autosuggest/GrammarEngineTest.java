@@ -0,0 +1,34 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class GrammarEngineTest {
+
+    private final GrammarEngine engine = new GrammarEngine(AutoSuggesterTest.loadGrammar(
+            "r: 'SELECT' ID 'FROM' ID ('ORDER' 'BY' ID)?", "ID: [a-z]+", "WS: [ ]+ -> skip"));
+
+    @Test
+    public void warmUp_withCorpus_shouldReportDurationAndBuildTables() {
+        long sizeBefore = engine.estimateRetainedBytes();
+        Duration duration = engine.warmUp(Arrays.asList("SELECT a ", "SELECT a FROM b "), 2);
+        assertThat(duration.isNegative(), is(false));
+        assertThat(engine.isWarmedUp(), is(true));
+        assertThat(engine.estimateRetainedBytes(), greaterThan(sizeBefore));
+    }
+
+    @Test
+    public void warmUp_withGeneratedCorpus_shouldNotChangeSuggestions() {
+        assertThat(engine.isWarmedUp(), is(false));
+        engine.warmUp(1);
+        assertThat(engine.isWarmedUp(), is(true));
+        assertThat(new AutoSuggester(engine, "SELECT a F").suggestCompletions(), containsInAnyOrder("ROM"));
+    }
+}
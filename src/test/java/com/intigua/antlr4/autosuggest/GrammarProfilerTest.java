@@ -0,0 +1,60 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.antlr.v4.runtime.atn.ATNState;
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.GrammarProfile.RuleStats;
+
+public class GrammarProfilerTest {
+
+    private final GrammarEngine engine = new GrammarEngine(AutoSuggesterTest.loadGrammar(
+            "r: a | b", "a: 'X' 'Y' 'Z'", "b: 'X' 'Y' 'W'", "WS: [ ]+ -> skip"));
+
+    @Test
+    public void profile_shouldRequestCompletionAtEveryTokenBoundary() {
+        GrammarProfile profile = new GrammarProfiler(engine).profile(Arrays.asList("X Y W", "X"));
+        assertThat(profile.getCompletionCount(), is(4 + 2));
+    }
+
+    @Test
+    public void profile_shouldCountDeadEndsOfAbandonedAlternative() {
+        GrammarProfile profile = new GrammarProfiler(engine).profile(Collections.singletonList("X Y W"));
+        RuleStats a = findRule(profile, "a");
+        RuleStats b = findRule(profile, "b");
+        assertThat(a.visits, greaterThan(0L));
+        assertThat(a.deadEnds, greaterThan(b.deadEnds));
+    }
+
+    @Test
+    public void profile_shouldRankMostVisitedRuleFirst() {
+        GrammarProfile profile = new GrammarProfiler(engine).profile(Collections.singletonList("X Y W"));
+        for (int i = 1; i < profile.getRules().size(); ++i) {
+            assertThat(profile.getRules().get(i - 1).visits >= profile.getRules().get(i).visits, is(true));
+        }
+    }
+
+    @Test
+    public void computeEpsilonClosureSize_ofRuleStart_shouldIncludeAlternatives() {
+        int ruleIndex = Arrays.asList(engine.getParserWrapper().getRuleNames()).indexOf("r");
+        ATNState ruleStart = engine.getParserWrapper().getAtn().ruleToStartState[ruleIndex];
+        assertThat(GrammarProfiler.computeEpsilonClosureSize(ruleStart), greaterThan(2));
+    }
+
+    @Test
+    public void toJson_shouldListRulesAndStates() {
+        GrammarProfile profile = new GrammarProfiler(engine).profile(Collections.singletonList("X"));
+        assertThat(profile.toJson(), startsWith("{\"completions\":2,\"rules\":[{\"rule\":"));
+    }
+
+    private static RuleStats findRule(GrammarProfile profile, String ruleName) {
+        return profile.getRules().stream().filter(r -> r.ruleName.equals(ruleName)).findFirst().get();
+    }
+}
@@ -0,0 +1,127 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.antlr.v4.runtime.Lexer;
+
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.KeywordIndex.PatternMasks;
+
+public class KeywordIndexTest {
+
+    @Test
+    public void build_withTokenSpellingOutManyTexts_shouldStopEnumeratingAfterLimit() {
+        LexerWrapper lexerWrapper = new LexerWrapper(AutoSuggesterTest.loadGrammar("r: HEX",
+                "HEX: [0-9a-f] [0-9a-f] [0-9a-f] [0-9a-f] [0-9a-f]"));
+        assertThat(KeywordIndex.build(lexerWrapper, Lexer.DEFAULT_MODE, CasePreference.BOTH).size(), is(0));
+        WorkCounters workCounters = new WorkCounters();
+        TokenSuggester tokenSuggester = new TokenSuggester("", lexerWrapper, CasePreference.BOTH, Lexer.DEFAULT_MODE,
+                workCounters);
+        tokenSuggester.setMaxSuggestions(KeywordIndex.MAX_TEXTS_PER_TOKEN_TYPE + 1);
+        int hex = lexerWrapper.getVocabulary().getMaxTokenType();
+        assertThat(tokenSuggester.suggest(Collections.singleton(hex)).size(), is(KeywordIndex.MAX_TEXTS_PER_TOKEN_TYPE + 1));
+        assertThat(workCounters.getLexerStatesEntered(), lessThan(100L)); // Instead of over 16^5
+    }
+
+    @Test
+    public void build_withKeywordOfCaseInsensitiveFragments_shouldIndexOneTextInBothCases() {
+        KeywordIndex keywordIndex = KeywordIndex.build(new LexerWrapper(loadFragmentKeywordGrammar()),
+                Lexer.DEFAULT_MODE, CasePreference.BOTH);
+        assertThat(keywordIndex.size(), is(1));
+        assertThat(keywordIndex.search("SELCT", Collections.singleton(1), 1, 10).stream()
+                .map(FuzzySuggestion::getText).collect(Collectors.toList()), contains("SELECT"));
+    }
+
+    @Test
+    public void build_withKeywordOfCaseInsensitiveFragments_shouldIndexOnlyTextsLexedAsTheToken() {
+        KeywordIndex keywordIndex = KeywordIndex.build(new LexerWrapper(loadFragmentKeywordGrammar()),
+                Lexer.DEFAULT_MODE, CasePreference.UPPER);
+        assertThat(keywordIndex.getOnlyText(1), is("SELECT"));
+    }
+
+    @Test
+    public void build_withKeywordOfCaseInsensitiveFragmentsInLowerCase_shouldIndexLowerCaseText() {
+        KeywordIndex keywordIndex = KeywordIndex.build(new LexerWrapper(loadFragmentKeywordGrammar()),
+                Lexer.DEFAULT_MODE, CasePreference.LOWER);
+        assertThat(keywordIndex.getOnlyText(1), is("select"));
+    }
+
+    @Test
+    public void prefixEditDistance_withExactPrefix_shouldBeZero() {
+        assertThat(prefixEditDistance("sel", "select"), is(0));
+    }
+
+    @Test
+    public void prefixEditDistance_withMissingCharacter_shouldBeOne() {
+        assertThat(prefixEditDistance("selct", "select"), is(1));
+    }
+
+    @Test
+    public void prefixEditDistance_withTextShorterThanPattern_shouldCountExtraCharacters() {
+        assertThat(prefixEditDistance("selection", "select"), is(3));
+    }
+
+    @Test
+    public void prefixEditDistance_withFullLengthPattern_shouldMatchDynamicProgramming() {
+        String pattern = "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijkl";
+        assertThat(pattern.length(), is(Long.SIZE));
+        assertThat(prefixEditDistance(pattern, "abcxdefgh"), is(dynamicProgrammingPrefixEditDistance(pattern, "abcxdefgh")));
+    }
+
+    @Test
+    public void prefixEditDistance_withRandomStrings_shouldMatchDynamicProgramming() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; ++i) {
+            String pattern = randomString(random, 1 + random.nextInt(12));
+            String text = randomString(random, random.nextInt(16));
+            assertThat(pattern + " / " + text, prefixEditDistance(pattern, text),
+                    is(dynamicProgrammingPrefixEditDistance(pattern, text)));
+        }
+    }
+
+    private static LexerAndParserFactory loadFragmentKeywordGrammar() {
+        return AutoSuggesterTest.loadGrammar("r: SELECT", "SELECT: S E L E C T", "fragment S: [sS]",
+                "fragment E: [eE]", "fragment L: [lL]", "fragment C: [cC]", "fragment T: [tT]");
+    }
+
+    private static int prefixEditDistance(String pattern, String text) {
+        return KeywordIndex.prefixEditDistance(new PatternMasks(pattern.toCharArray()), text.toCharArray());
+    }
+
+    private static int dynamicProgrammingPrefixEditDistance(String pattern, String text) {
+        int[] previousRow = new int[text.length() + 1];
+        for (int j = 0; j <= text.length(); ++j) {
+            previousRow[j] = j;
+        }
+        for (int i = 1; i <= pattern.length(); ++i) {
+            int[] row = new int[text.length() + 1];
+            row[0] = i;
+            for (int j = 1; j <= text.length(); ++j) {
+                int substitutionCost = (pattern.charAt(i - 1) == text.charAt(j - 1)) ? 0 : 1;
+                row[j] = Math.min(previousRow[j - 1] + substitutionCost, Math.min(previousRow[j], row[j - 1]) + 1);
+            }
+            previousRow = row;
+        }
+        int result = Integer.MAX_VALUE;
+        for (int distance : previousRow) {
+            result = Math.min(result, distance);
+        }
+        return result;
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            result.append((char) ('a' + random.nextInt(3)));
+        }
+        return result.toString();
+    }
+}
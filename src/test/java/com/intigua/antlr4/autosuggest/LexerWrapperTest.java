@@ -0,0 +1,90 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.junit.Test;
+
+import com.intigua.antlr4.autosuggest.LexerWrapper.TokenizationResult;
+
+public class LexerWrapperTest {
+
+    private static final int DEFAULT_MODE = 0;
+    private static final int STR_MODE = 1;
+
+    private final LexerWrapper lexerWrapper = new LexerWrapper(
+            AutoSuggesterTest.loadLexerAndParserGrammars(AutoSuggesterTest.MODAL_LEXER_GRAMMAR, "r: ID"));
+
+    @Test
+    public void tokenize_endingInsidePushedMode_shouldReportThatMode() {
+        TokenizationResult result = lexerWrapper.tokenizeNonDefaultChannel("ab \"ab");
+        assertThat(result.lexerMode, is(STR_MODE));
+        assertThat(result.untokenizedText, is("ab"));
+    }
+
+    @Test
+    public void tokenize_afterPoppingMode_shouldReportDefaultMode() {
+        TokenizationResult result = lexerWrapper.tokenizeNonDefaultChannel("\"abc\"");
+        assertThat(result.lexerMode, is(DEFAULT_MODE));
+    }
+
+    @Test
+    public void tokenize_withNonBmpCharactersBeforeError_shouldStartUntokenizedTextAtError() {
+        LexerWrapper nonBmpLexerWrapper = new LexerWrapper(
+                AutoSuggesterTest.loadGrammar("r: ID+", "ID: [a-z\\u{1F600}]+"));
+        TokenizationResult result = nonBmpLexerWrapper.tokenizeNonDefaultChannel("\uD83D\uDE00a!b");
+        assertThat(result.untokenizedText, is("!b"));
+    }
+
+    @Test
+    public void fromProvidedTokens_withNonBmpCharacters_shouldDropTokensAfterEndOfInput() {
+        CommonToken inside = new CommonToken(tokenType("ID"), "ab");
+        inside.setStartIndex(1);
+        inside.setStopIndex(2);
+        CommonToken after = new CommonToken(tokenType("ID"), "cd");
+        after.setStartIndex(3);
+        after.setStopIndex(4);
+        TokenizationResult result = LexerWrapper.fromProvidedTokens("\uD83D\uDE00ab", Arrays.asList(inside, after),
+                "");
+        assertThat(result.tokens, contains(inside));
+    }
+
+    @Test
+    public void findStartStatesByTokenType_shouldOnlyFindRulesOfGivenMode() {
+        int id = tokenType("ID");
+        int text = tokenType("TEXT");
+        assertThat(lexerWrapper.findStartStatesByTokenType(DEFAULT_MODE, id), hasSize(1));
+        assertThat(lexerWrapper.findStartStatesByTokenType(DEFAULT_MODE, text), is(empty()));
+        assertThat(lexerWrapper.findStartStatesByTokenType(STR_MODE, id), is(empty()));
+        assertThat(lexerWrapper.findStartStatesByTokenType(STR_MODE, text), hasSize(1));
+    }
+
+    @Test
+    public void prefixDfa_shouldOnlyMatchPrefixesOfTheRule() {
+        ATNState idStart = lexerWrapper.findStartStatesByTokenType(DEFAULT_MODE, tokenType("ID")).get(0);
+        PrefixDfa prefixDfa = lexerWrapper.getPrefixDfa(idStart, CasePreference.BOTH);
+        assertThat(prefixDfa.statesAfter("xy").isEmpty(), is(false));
+        assertThat(prefixDfa.statesAfter("ab").isEmpty(), is(false));
+        assertThat(prefixDfa.statesAfter("xa").isEmpty(), is(true));
+        assertThat(prefixDfa.statesAfter("abc").isEmpty(), is(true));
+        assertThat(lexerWrapper.getPrefixDfa(idStart, CasePreference.BOTH) == prefixDfa, is(true));
+    }
+
+    private int tokenType(String symbolicName) {
+        Vocabulary vocabulary = lexerWrapper.getVocabulary();
+        for (int tokenType = 0; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (symbolicName.equals(vocabulary.getSymbolicName(tokenType))) {
+                return tokenType;
+            }
+        }
+        throw new IllegalArgumentException(symbolicName);
+    }
+}
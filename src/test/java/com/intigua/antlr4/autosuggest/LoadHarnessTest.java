@@ -0,0 +1,67 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void run_shouldMeasureEveryCompletionOfEveryThread() {
+        GrammarEngine engine = new GrammarEngine(AutoSuggesterTest.loadGrammar("r: 'AB' 'CD'", "WS: [ ]+ -> skip"));
+        List<List<String>> sessions = Arrays.asList(Arrays.asList("", "A", "AB", "AB "), Arrays.asList("AB C"));
+        LoadHarness harness = new LoadHarness(engine, sessions);
+        harness.setThreadCount(3);
+        harness.setIterations(2);
+        LoadHarness.Report report = harness.run();
+        assertThat(report.completions, is(3L * 2 * 5));
+        assertThat(report.p50Nanos, lessThanOrEqualTo(report.p99Nanos));
+        assertThat(report.p99Nanos, lessThanOrEqualTo(report.maxNanos));
+        assertThat(report.getThroughputPerSecond(), greaterThan(0.0));
+    }
+
+    @Test
+    public void readSession_shouldUnescapeLines() {
+        assertThat(LoadHarness.readSession(Arrays.asList("a\\nb", "c\\\\n\\t")), is(Arrays.asList("a\nb", "c\\n\t")));
+    }
+
+    @Test
+    public void histogram_shouldReportPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; ++value) {
+            histogram.record(value * 1000);
+        }
+        assertThat(histogram.getTotalCount(), is(100000L));
+        assertThat(histogram.getValueAtPercentile(50), greaterThanOrEqualTo(50000000L));
+        assertThat(histogram.getValueAtPercentile(50), lessThanOrEqualTo(50000000L + 50000000L / 64));
+        assertThat(histogram.getValueAtPercentile(99.9), greaterThanOrEqualTo(99900000L));
+        assertThat(histogram.getValueAtPercentile(100), is(100000000L));
+    }
+
+    @Test
+    public void histogram_shouldCountSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        assertThat(histogram.getValueAtPercentile(50), is(3L));
+        assertThat(histogram.getValueAtPercentile(100), is(7L));
+    }
+
+    @Test
+    public void histogram_bucketIndex_shouldMapToBucketContainingValue() {
+        for (long value : new long[] { 0, 127, 128, 129, 1000, 123456789, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.highestEquivalentValue(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(LatencyHistogram.highestEquivalentValue(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+}
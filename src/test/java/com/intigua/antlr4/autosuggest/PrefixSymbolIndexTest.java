@@ -0,0 +1,96 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class PrefixSymbolIndexTest {
+
+    @Test
+    public void suggestSymbols_shouldReturnSymbolsWithPrefixInOrder() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("orders", "customers", "cost", "co", "cat"));
+        assertThat(index.suggestSymbols("co", 10), contains("co", "cost"));
+        assertThat(index.suggestSymbols("c", 10), contains("cat", "co", "cost", "customers"));
+    }
+
+    @Test
+    public void suggestSymbols_withNoMatch_shouldReturnNothing() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("orders", "customers"));
+        assertThat(index.suggestSymbols("x", 10), is(empty()));
+        assertThat(index.suggestSymbols("ordersx", 10), is(empty()));
+    }
+
+    @Test
+    public void suggestSymbols_shouldLimitResults() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("a1", "a2", "a3", "b"));
+        assertThat(index.suggestSymbols("a", 2), contains("a1", "a2"));
+    }
+
+    @Test
+    public void build_withDuplicates_shouldKeepOneCopy() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("a", "b", "a"));
+        assertThat(index.size(), is(2));
+    }
+
+    @Test
+    public void suggestSymbols_withNonAsciiSymbols_shouldUseCodePointOrder() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("té", "t😀", "tz"));
+        assertThat(index.suggestSymbols("t", 10), contains("tz", "té", "t😀"));
+        assertThat(index.suggestSymbols("té", 10), contains("té"));
+    }
+
+    @Test
+    public void suggestSymbols_withNonBmpPrefix_shouldReturnSymbolsStartingWithIt() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.of(Arrays.asList("😀orders", "😀items", "😁orders", "orders"));
+        assertThat(index.suggestSymbols("😀", 10), contains("😀items", "😀orders"));
+        assertThat(index.suggestSymbols("😀o", 10), contains("😀orders"));
+    }
+
+    @Test
+    public void suggestSymbols_withWeights_shouldReturnHeaviestFirst() {
+        PrefixSymbolIndex index = PrefixSymbolIndex.builder().add("orders", 5).add("order_items", 9).add("owners", 7)
+                .add("products", 100).build();
+        assertThat(index.suggestSymbols("o", 2), contains("order_items", "owners"));
+    }
+
+    @Test
+    public void suggestSymbols_withManyWeightedSymbols_shouldMatchBruteForce() {
+        Random random = new Random(7);
+        PrefixSymbolIndex.Builder builder = PrefixSymbolIndex.builder();
+        Map<String, Integer> weights = new HashMap<>();
+        for (int i = 0; i < 5000; ++i) {
+            String symbol = randomSymbol(random);
+            int weight = random.nextInt(50);
+            builder.add(symbol, weight);
+            weights.merge(symbol, weight, Math::max);
+        }
+        PrefixSymbolIndex index = builder.build();
+        for (String prefix : Arrays.asList("", "a", "ab", "ba", "ccc")) {
+            List<String> expected = new ArrayList<>(weights.keySet()).stream().filter(s -> s.startsWith(prefix))
+                    .sorted(Comparator.<String>comparingInt(weights::get).reversed().thenComparing(s -> s))
+                    .limit(20).collect(Collectors.toList());
+            assertThat(prefix, index.suggestSymbols(prefix, 20), is(expected));
+        }
+    }
+
+    private static String randomSymbol(Random random) {
+        StringBuilder result = new StringBuilder();
+        int length = 1 + random.nextInt(6);
+        for (int i = 0; i < length; ++i) {
+            result.append((char) ('a' + random.nextInt(3)));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.antlr.runtime.RecognitionException;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.ATNSerializer;
+import org.antlr.v4.tool.Grammar;
+import org.antlr.v4.tool.LexerGrammar;
+import org.junit.Test;
+
+public class SerializedAtnLexerAndParserFactoryTest {
+    private static final String LEXER_GRAMMAR = "lexer grammar sqllexer;\n" + "SELECT: 'SELECT';\n" + "FROM: 'FROM';\n"
+            + "ID: [a-z]+;\n" + "WS: [ ]+ -> channel(HIDDEN);\n";
+    private static final String PARSER_GRAMMAR = "parser grammar sqlparser;\n" + "r: SELECT ID FROM ID;\n";
+
+    @Test
+    public void suggestCompletions_shouldUseDeserializedGrammar() throws RecognitionException {
+        AutoSuggester suggester = new AutoSuggester(newSerializedFactory(), "SELECT a ");
+        assertThat(suggester.suggestCompletions(), containsInAnyOrder("FROM"));
+    }
+
+    @Test
+    public void engine_shouldHaveSameContentAsEngineOfGrammarInterpreters() throws RecognitionException {
+        LexerGrammar lexerGrammar = new LexerGrammar(LEXER_GRAMMAR);
+        Grammar parserGrammar = new Grammar(PARSER_GRAMMAR, lexerGrammar);
+        GrammarEngine fromGrammar = new GrammarEngine(new LexerAndParserFactory() {
+            @Override
+            public Lexer createLexer(CharStream input) {
+                return lexerGrammar.createLexerInterpreter(input);
+            }
+
+            @Override
+            public Parser createParser(TokenStream tokenStream) {
+                return parserGrammar.createParserInterpreter(tokenStream);
+            }
+        });
+        GrammarEngine fromSerialized = new GrammarEngine(newSerializedFactory());
+        assertThat(fromSerialized.getContentHash(), is(fromGrammar.getContentHash()));
+    }
+
+    @Test
+    public void createLexer_shouldReuseDfaStatesOfEarlierLexers() throws RecognitionException {
+        SerializedAtnLexerAndParserFactory factory = newSerializedFactory();
+        factory.createLexer(CharStreams.fromString("SELECT a FROM b")).getAllTokens();
+        Lexer lexer = factory.createLexer(CharStreams.fromString(""));
+        assertThat(lexer.getInterpreter().decisionToDFA[Lexer.DEFAULT_MODE].states.isEmpty(), is(false));
+    }
+
+    @Test
+    public void createParser_shouldShareDfasWithEarlierParsers() throws RecognitionException {
+        SerializedAtnLexerAndParserFactory factory = newSerializedFactory();
+        Parser first = factory.createParser(new CommonTokenStream(factory.createLexer(CharStreams.fromString(""))));
+        Parser second = factory.createParser(new CommonTokenStream(factory.createLexer(CharStreams.fromString(""))));
+        assertThat(second.getInterpreter().decisionToDFA, is(sameInstance(first.getInterpreter().decisionToDFA)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_withParserAtnAsLexerAtn_shouldThrow() throws RecognitionException {
+        LexerGrammar lexerGrammar = new LexerGrammar(LEXER_GRAMMAR);
+        Grammar parserGrammar = new Grammar(PARSER_GRAMMAR, lexerGrammar);
+        String serializedParserAtn = ATNSerializer.getSerializedAsString(parserGrammar.atn);
+        new SerializedAtnLexerAndParserFactory("sql", parserGrammar.getVocabulary(), serializedParserAtn,
+                lexerGrammar.getRuleNames(), new String[0], new String[0], serializedParserAtn,
+                parserGrammar.getRuleNames());
+    }
+
+    static SerializedAtnLexerAndParserFactory newSerializedFactory() throws RecognitionException {
+        return newSerializedFactory(LEXER_GRAMMAR, PARSER_GRAMMAR);
+    }
+
+    /**
+     * Serializes the ATNs of the given grammars, as a grammar management service would.
+     */
+    static SerializedAtnLexerAndParserFactory newSerializedFactory(String lexerGrammarText, String parserGrammarText)
+            throws RecognitionException {
+        LexerGrammar lexerGrammar = new LexerGrammar(lexerGrammarText);
+        Grammar parserGrammar = new Grammar(parserGrammarText, lexerGrammar);
+        return new SerializedAtnLexerAndParserFactory("sql", lexerGrammar.getVocabulary(),
+                ATNSerializer.getSerializedAsString(lexerGrammar.atn), lexerGrammar.getRuleNames(),
+                lexerGrammar.channelValueToNameList.toArray(new String[0]),
+                lexerGrammar.modes.keySet().toArray(new String[0]),
+                ATNSerializer.getSerializedAsString(parserGrammar.atn), parserGrammar.getRuleNames());
+    }
+}
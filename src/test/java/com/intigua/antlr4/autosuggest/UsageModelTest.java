@@ -0,0 +1,92 @@
+package com.intigua.antlr4.autosuggest;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.Vocabulary;
+import org.junit.Test;
+
+public class UsageModelTest {
+    private static final String[] GRAMMAR = { "r: 'SELECT' ID ('WHERE' ID | 'ORDER' 'BY' ID | 'LIMIT' ID)?",
+            "ID: [a-z]+", "WS: ' ' -> skip" };
+    private static final List<String> CORPUS = Arrays.asList("SELECT a LIMIT b", "SELECT c LIMIT d",
+            "SELECT e WHERE f", "WHERE WHERE");
+
+    private final GrammarEngine engine = new GrammarEngine(AutoSuggesterTest.loadGrammar(GRAMMAR));
+
+    @Test
+    public void rankedCompletions_withModel_shouldPutMostFrequentFirst() {
+        AutoSuggester suggester = new AutoSuggester(engine, "SELECT a ");
+        suggester.setUsageModel(UsageModel.train(engine, CORPUS));
+        assertThat(suggester.suggestRankedCompletions(3), contains("LIMIT", "WHERE", "ORDER"));
+    }
+
+    @Test
+    public void rankedCompletions_shouldKeepOnlyBest() {
+        AutoSuggester suggester = new AutoSuggester(engine, "SELECT a ");
+        suggester.setUsageModel(UsageModel.train(engine, CORPUS));
+        assertThat(suggester.suggestRankedCompletions(1), contains("LIMIT"));
+    }
+
+    @Test
+    public void rankedCompletions_ofSymbolCompletingLastToken_shouldFollowTokensBeforeIt() {
+        AutoSuggester suggester = new AutoSuggester(engine, "SELECT a");
+        suggester.addSymbolProvider(tokenType("ID"), (prefix, maxResults) -> Arrays.asList("abc"));
+        suggester.setUsageModel(UsageModel.train(engine, CORPUS));
+        // An ID always follows SELECT, while no ID follows SELECT ID
+        assertThat(suggester.suggestRankedCompletions(2), contains("bc", "LIMIT"));
+    }
+
+    @Test
+    public void rankedCompletions_withoutModel_shouldBeAlphabetical() {
+        assertThat(new AutoSuggester(engine, "SELECT a ").suggestRankedCompletions(2), contains("LIMIT", "ORDER"));
+    }
+
+    @Test
+    public void score_withUnseenContext_shouldBackOffToShorterContexts() {
+        UsageModel model = UsageModel.train(engine, CORPUS);
+        int select = tokenType("'SELECT'");
+        int where = tokenType("'WHERE'");
+        int limit = tokenType("'LIMIT'");
+        assertThat(model.score(new int[] { select, limit }, where), greaterThan(0.0)); // Only the unigram was seen
+        assertThat(model.score(new int[] { where }, where), greaterThan(model.score(new int[] { where }, limit)));
+    }
+
+    @Test
+    public void readWrite_shouldPreserveScores() throws IOException {
+        UsageModel model = UsageModel.train(engine, CORPUS);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        model.write(output);
+        UsageModel readModel = UsageModel.read(new ByteArrayInputStream(output.toByteArray()));
+        assertThat(readModel.getGrammarHash(), is(model.getGrammarHash()));
+        int[] context = { tokenType("'SELECT'"), tokenType("ID") };
+        for (int tokenType = 1; tokenType <= tokenType("WS"); ++tokenType) {
+            assertThat(readModel.score(context, tokenType), is(model.score(context, tokenType)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setUsageModel_ofOtherGrammar_shouldThrow() {
+        GrammarEngine otherEngine = new GrammarEngine(AutoSuggesterTest.loadGrammar("r: 'SELECT'"));
+        new AutoSuggester(engine, "").setUsageModel(UsageModel.train(otherEngine, CORPUS));
+    }
+
+    private int tokenType(String name) {
+        Vocabulary vocabulary = engine.getLexerWrapper().getVocabulary();
+        for (int tokenType = 1; tokenType <= vocabulary.getMaxTokenType(); ++tokenType) {
+            if (name.equals(vocabulary.getLiteralName(tokenType))
+                    || name.equals(vocabulary.getSymbolicName(tokenType))) {
+                return tokenType;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+}